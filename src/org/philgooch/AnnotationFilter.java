@@ -0,0 +1,92 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.philgooch;
+
+import gate.AnnotationSet;
+import gate.Factory;
+import gate.FeatureMap;
+
+import java.io.Serializable;
+
+/**
+ * Pre-parsed expression of the form Annotation or Annotation.feature == value, as used in inputASTypes and
+ * excludeIfWithin, so that expressions are split once rather than for every document and every mention
+ *
+ * @author philipgooch
+ */
+class AnnotationFilter implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String expression;
+    private final String baseName;      // everything before ==
+    private final String annName;       // annotation name if the expression has a feature, else null
+    private final String feature;
+    private final String value;
+
+    private transient FeatureMap annFeats;
+
+    /**
+     *
+     * @param expression    an expression of the form Annotation or Annotation.feature == value
+     */
+    AnnotationFilter(String expression) {
+        this.expression = expression;
+        String[] inputAnnArr = expression.split("\\s*==\\s*");
+        baseName = inputAnnArr[0];
+
+        String name = null;
+        String feat = null;
+        String val = null;
+        // Check if we have an expression of the form Annotation.feature == value
+        if (inputAnnArr.length == 2) {
+            String base = inputAnnArr[0];
+            int dot = base.lastIndexOf(".");
+            if (dot > 0 && dot < base.length() - 1) {
+                name = base.substring(0, dot);
+                feat = base.substring(dot + 1);
+                val = inputAnnArr[1];
+            }
+        }
+        annName = name;
+        feature = feat;
+        value = val;
+    }
+
+
+    /**
+     *
+     * @return      the original expression
+     */
+    String getExpression() {
+        return expression;
+    }
+
+    /**
+     *
+     * @return      the part of the expression before ==, i.e. the whole expression if there is no feature
+     */
+    String getBaseName() {
+        return baseName;
+    }
+
+
+    /**
+     *
+     * @param inputAS       some input Annotation Set
+     * @return              inputAS filtered according to the expression
+     */
+    AnnotationSet apply(AnnotationSet inputAS) {
+        // Assume a simple ann name unless we have a feature and feature value present
+        if (feature == null) {
+            return inputAS.get(expression);
+        }
+        if (annFeats == null) {
+            annFeats = Factory.newFeatureMap();
+            annFeats.put(feature, value);
+        }
+        return inputAS.get(annName, annFeats);
+    }
+}
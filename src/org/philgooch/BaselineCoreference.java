@@ -21,7 +21,10 @@ import com.wcohen.ss.*;
 import com.wcohen.ss.api.*;
 
 import java.util.regex.Pattern;
+import java.lang.reflect.Method;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.io.*;
 import java.net.*;
 
@@ -68,12 +71,85 @@ public class BaselineCoreference extends AbstractLanguageAnalyser implements Pro
     private SimilarityMeasure similarityMeasure1;        // Main similarity measure
     private SimilarityMeasure similarityMeasure2;        // Secondary similarity measure
     private MeasureCompare similarityComparison;        // max, mean or min of main and secondary measures
+    private ChainingAlgorithm chainingAlgorithm;        // algorithm used to build the coreference chains
+    private URL pairScoreFileURL;       // if set, candidate pairs are recorded to this file for ThresholdSweep
+    private MentionStorage mentionStorage;        // where the SlidingWindow algorithm holds the mentions of each type
+    private Integer maxDocumentTime;        // latency budget for each document in milliseconds, -1 for no limit
+    private Integer maxCandidatesPerAntecedent;     // maximum number of candidate anaphors compared with each antecedent, -1 for no limit
+    private Boolean collectStatistics;      // record per-document latency and allocation histograms, exposed through JMX
+    private URL statisticsFileURL;          // if set, histogram percentiles are appended to this file every statisticsInterval seconds
+    private Integer statisticsInterval;
+    private Boolean crossDocumentLinking;       // link chain heads to the entities of the corpus after in-document chaining
+    private URL entityIndexURL;             // directory in which the cross-document entity index is saved, or null to hold it in memory only
+    private String entityIdFeature;         // Feature that will hold the cross-document entity id
+    private Integer maxIndexedHeads;        // maximum number of chain heads the entity index holds in memory, -1 for no limit
+    private Boolean skipUnchangedDocuments;     // skip documents whose fingerprint matches the one stored when they were last processed
+    private Integer parallelChunkSize;      // sentences per chunk when similarity scores are precomputed in parallel, -1 to score them as they are met
+    private URL traceFileURL;               // if set, the sieve decisions of sampled documents are appended to this file
+    private Double traceSampleRate;         // fraction of documents traced
+    private ArrayList<String> traceDocuments;       // names of the documents to trace, overriding traceSampleRate
+    private Integer traceBufferSize;        // number of decisions held in memory before they are written
+    private Integer linkBufferSize;         // number of links waiting for CoreferenceListeners before the PR blocks
+    private URL chainFileURL;               // if set, the mentions and chains of each document are appended to this file
+
+    private transient DecisionTrace trace;
+    private boolean traceDocument;          // true if the decisions of the current document are traced
+
+    private transient ChainExporter chainExporter;
+
+    private transient LinkPublisher linkPublisher;      // delivers links to CoreferenceListeners, created when the first is added
+    private boolean publishLinks;           // true if the links of the current document are published
+    private SieveStage matchedStage;        // stage at which matchPair last matched a pair
+
+    private transient EntityLinker entityLinker;
+
+    private transient SlidingWindowChainer slidingWindow;     // created on first use
+
+    private transient DocumentStatistics statistics;
+
+    private URL configurationSnapshotURL;       // if set, initialise from a snapshot written by writeConfigurationSnapshot
+
+    // State compiled from the parameters, rebuilt when they change
+    private transient List<AnnotationFilter> inputFilters;
+    private transient List<AnnotationFilter> excludeFilters;
+    private transient StringDistance[] compiledMetrics;
+    private transient String compiledMetricName;
+    private long featureWritingTime;        // nanoseconds spent writing features for the current document
+    private long linkPublishingTime;        // nanoseconds spent waiting for CoreferenceListeners to take the links of the current document
+
+    // Latency budget of the current document
+    private long documentStartTime;
+    private boolean skipApproximate;
+    private boolean skipContent;
+    private boolean budgetExhausted;
+    private Set<String> shortenedStages;
+
+    // Sortal words and annFeatsToContent values of the mentions of the current document, or only of the open
+    // antecedents of the sliding window, and the head words of those antecedents
+    private HeadWordIndex sortalIndex;
+    private HeadWordIndex contentIndex;
+    private HeadWordIndex headWordIndex;
+    private boolean reindexOnLink;              // linking may change the indexed features
+    private transient SimilarityScorer similarityScorer;     // scores pairs for compiledMetrics on the thread running execute()
+    private PairScoreTable pairScoreCache;      // similarity scores precomputed for the current document
+
+    private static ForkJoinPool chunkPool;      // shared by all PRs in the JVM, created on first use
 
     // Exit gracefully if exception caught on init()
     private boolean gracefulExit;
 
     private static final String definiteDescriptorRegEx = "(?i)the|this|that|these|those|his|her|their|its|your|our";
     private static final String wordBreakRegEx = "([\\s\\xA0]+)|([^a-zA-Z_0-9\\-]+)";
+    private static final String shortenedStagesFeature = "corefShortenedStages";     // document feature listing the sieve stages cut short by the latency budget
+    private static final String candidateLimitStage = "Candidates";     // recorded in shortenedStagesFeature when maxCandidatesPerAntecedent is reached
+    private static final String crossDocumentStage = "CrossDocument";   // recorded in shortenedStagesFeature when entity linking is skipped
+    private static final String fingerprintFeature = "corefFingerprint";    // document feature holding the fingerprint of the last processed state
+
+    // Parameters that change how a document is processed but not the chains, so they are left out of its fingerprint
+    private static final Set<String> unfingerprintedParameters = new HashSet<String>(Arrays.asList(
+            "ChainingAlgorithm", "MentionStorage", "ParallelChunkSize", "MaxDocumentTime", "PairScoreFileURL",
+            "CollectStatistics", "StatisticsFileURL", "StatisticsInterval", "ConfigurationSnapshotURL", "SkipUnchangedDocuments",
+            "TraceFileURL", "TraceSampleRate", "TraceDocuments", "TraceBufferSize", "LinkBufferSize", "ChainFileURL"));
 
     // Output Lists as strings or as a List object
     public enum SimilarityMeasure {
@@ -85,48 +161,90 @@ public class BaselineCoreference extends AbstractLanguageAnalyser implements Pro
         mean, max, min
     }
 
+    // Stage of the sieve at which an antecedent-anaphor pair was matched
+    public enum SieveStage {
+        None, Exact, DefiniteHeadword, TypeToSortal, FeatureToSortal, TentativeSortal, Content, PersonHeadword, Approximate
+    }
+
+    // Why the sieve rejected an antecedent-anaphor pair, or why it never reached the sieve, as recorded by decision tracing
+    public enum RejectionReason {
+        None, BudgetExhausted, EssentialFeatures, FeatureMatchRatio, AlreadyLinked, BelowThreshold, ApproximateSkipped, ShortString,
+        ExclusionRegion, SentenceDistance, SortalSentenceDistance, CandidateLimit, NoStageMatched
+    }
+
+    // Iterative re-queries the candidate anaphors of each antecedent, SlidingWindow makes a single pass over the mentions
+    public enum ChainingAlgorithm {
+        Iterative, SlidingWindow
+    }
+
+    // Where the SlidingWindow algorithm holds its working set: on the heap, in direct buffers, or in a memory-mapped temporary file
+    public enum MentionStorage {
+        Heap, Direct, MappedFile
+    }
+
 
     /**
-     *
-     * @param expression    an expression of the form Annotation or Annotation.feature == value
-     * @return              string containing the annotation name from the input expression
+     * Parse the inputASTypes and excludeIfWithin expressions if they have changed since they were last parsed
      */
-    private String getAnnNameFromExpression(String expression) {
-        String[] inputAnnArr = expression.split("\\s*==\\s*");
-        return inputAnnArr[0];
+    private void compileFilters() {
+        if (!isCompiledFrom(inputFilters, inputASTypes)) {
+            inputFilters = compileFilters(inputASTypes);
+        }
+        if (!isCompiledFrom(excludeFilters, excludeIfWithin)) {
+            excludeFilters = compileFilters(excludeIfWithin);
+        }
     }
 
     /**
      *
-     * @param inputAS           some input Annotation Set
-     * @param inputAnnExpr      some Annotation or Annotation.feature == value expression
-     * @return  inputAS filtered according to inputAnnExpr
+     * @param expressions   expressions of the form Annotation or Annotation.feature == value
+     * @return              the parsed expressions
      */
-    private AnnotationSet getFilteredAS(AnnotationSet inputAS, String inputAnnExpr) {
-        // We allow inputAnnExpr of the form
-        // Annotation or Annotation.feature == value
-        String annFeature;
-        String annFeatureValue;
-
-        // Assume a simple ann name unless we have a feature and feature value present
-        AnnotationSet filteredAS = inputAS.get(inputAnnExpr);
+    private static List<AnnotationFilter> compileFilters(List<String> expressions) {
+        List<AnnotationFilter> filters = new ArrayList<AnnotationFilter>();
+        if (expressions != null) {
+            for (String expression : expressions) {
+                filters.add(new AnnotationFilter(expression));
+            }
+        }
+        return filters;
+    }
 
-        // Check if we have an expression of the form Annotation.feature == value
-        String[] inputAnnArr = inputAnnExpr.split("\\s*==\\s*");
+    /**
+     *
+     * @param filters       parsed expressions, may be null
+     * @param expressions   expressions, may be null
+     * @return              true if filters were parsed from expressions
+     */
+    private static boolean isCompiledFrom(List<AnnotationFilter> filters, List<String> expressions) {
+        if (filters == null) {
+            return false;
+        }
+        int numExpressions = (expressions == null) ? 0 : expressions.size();
+        if (filters.size() != numExpressions) {
+            return false;
+        }
+        for (int i = 0; i < numExpressions; i++) {
+            if (!filters.get(i).getExpression().equals(expressions.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-        if (inputAnnArr.length == 2) {
-            String base = inputAnnArr[0];
-            int dot = base.lastIndexOf(".");
-            if (dot > 0 && dot < base.length() - 1) {
-                String annName = base.substring(0, dot);
-                annFeature = base.substring(dot + 1);
-                annFeatureValue = inputAnnArr[1];
-                FeatureMap annFeats = Factory.newFeatureMap();
-                annFeats.put(annFeature, annFeatureValue);
-                filteredAS = inputAS.get(annName, annFeats);
+    /**
+     *
+     * @return      name of the string distance metrics for DistanceLearnerFactory, empty if there is no similarity measure
+     */
+    private String getMetricName() {
+        String metric = "";
+        if (similarityMeasure1 != SimilarityMeasure.None) {
+            metric = similarityMeasure1.toString();
+            if (similarityMeasure2 != SimilarityMeasure.None && similarityMeasure2 != similarityMeasure1) {
+                metric = metric + "/" + similarityMeasure2.toString();
             }
         }
-        return filteredAS;
+        return metric;
     }
 
     /**
@@ -136,13 +254,12 @@ public class BaselineCoreference extends AbstractLanguageAnalyser implements Pro
      * @param currEnd           annotation end offset
      * @return                  true if annotation occurs within exclusion region
      */
-    private boolean isInExclusionRegion(AnnotationSet inputAS, Long currStart, Long currEnd) {
+    boolean isInExclusionRegion(AnnotationSet inputAS, Long currStart, Long currEnd) {
     // Don't process this annotation if it occurs within a defined exclusion zone
-        if (excludeIfWithin != null && !(excludeIfWithin.isEmpty())) {
-            for (String excludeAnnExpr : excludeIfWithin) {
-                String excludeAnnName = getAnnNameFromExpression(excludeAnnExpr);
-                AnnotationSet tempAS = inputAS.getCovering(excludeAnnName, currStart, currEnd);
-                AnnotationSet excludeAS = getFilteredAS(tempAS, excludeAnnExpr);
+        if (!excludeFilters.isEmpty()) {
+            for (AnnotationFilter excludeFilter : excludeFilters) {
+                AnnotationSet tempAS = inputAS.getCovering(excludeFilter.getBaseName(), currStart, currEnd);
+                AnnotationSet excludeAS = excludeFilter.apply(tempAS);
                 if (!excludeAS.isEmpty()) {
                     return true;
                 }
@@ -151,6 +268,22 @@ public class BaselineCoreference extends AbstractLanguageAnalyser implements Pro
         return false;
     }
 
+    /**
+     * Nested sentences are resolved as the Iterative algorithm does, by taking the first one that getCovering returns
+     * @param inputAS           input Annotation Set
+     * @param sentences         sentence offsets of the document
+     * @param start             annotation start offset
+     * @param end               annotation end offset
+     * @return                  position of the sentence covering the annotation, or -1 if there is none
+     */
+    int getCoveringSentence(AnnotationSet inputAS, SentenceIndex sentences, long start, long end) {
+        int sentencePos = sentences.getCoveringSentence(start, end);
+        if (sentencePos >= 0 && sentences.countCovering(start, end) > 1) {
+            sentencePos = sentences.indexOf(inputAS.getCovering(sentenceName, start, end).iterator().next());
+        }
+        return sentencePos;
+    }
+
     /**
      *
      * @param ann1End           End point of antecedent annotation
@@ -184,7 +317,7 @@ public class BaselineCoreference extends AbstractLanguageAnalyser implements Pro
      * @param annEnd        candidate annotation end offset
      * @return              true if the annotation is a definite descriptor, i.e. begins with the|this|that|these|those and comprises two words only
      */
-    private boolean isDefiniteDescriptor(AnnotationSet inputAS, Long annStart, Long annEnd) {
+    boolean isDefiniteDescriptor(AnnotationSet inputAS, Long annStart, Long annEnd) {
         List<Annotation> innerToks = new ArrayList<Annotation>(inputAS.getContained(annStart, annEnd).get(tokenName));
         int numWords = getNumWords(innerToks);
         Collections.sort(innerToks, new OffsetComparator());
@@ -237,7 +370,7 @@ public class BaselineCoreference extends AbstractLanguageAnalyser implements Pro
      * @param str        input String
      * @return           the last word of the string
      */
-    private String getLastWord(String str) {
+    static String getLastWord(String str) {
         String termArr[] = str.split(wordBreakRegEx);
         int termArrLen = termArr.length;
         if (termArrLen == 0) {return "" ; }
@@ -251,7 +384,7 @@ public class BaselineCoreference extends AbstractLanguageAnalyser implements Pro
      * @param str        input String
      * @return           the first word of the string
      */
-    private String getFirstWord(String str) {
+    static String getFirstWord(String str) {
         String termArr[] = str.split(wordBreakRegEx);
         int termArrLen = termArr.length;
         if (termArrLen == 0) {return "" ; }
@@ -264,7 +397,7 @@ public class BaselineCoreference extends AbstractLanguageAnalyser implements Pro
      * @param str       input String
      * @return          number of words in string by regex
      */
-    private int getNumWords(String str) {
+    static int getNumWords(String str) {
         String termArr[] = str.split(wordBreakRegEx);
         return termArr.length;
     }
@@ -331,76 +464,1448 @@ public class BaselineCoreference extends AbstractLanguageAnalyser implements Pro
                 }
             }
         }
-        return matchingValues;
+        return matchingValues;
+    }
+
+
+    /**
+     * Populate a new list with the values of feature keys specified in keyList
+     * @param fm            FeatureMap
+     * @param newList       New list to be populated
+     * @param keyList    List of feature keys for which we want values (including null)
+     */
+    private void populateFeatureList(FeatureMap fm, List newList, List<String> keyList) {
+        if (keyList != null) {
+           for (String str : keyList) {
+               Object feat = fm.get(str);
+               newList.add(feat);   
+               // null is OK, shows that feature is missing and will ensure that
+               // lists for both antecedent and anaphor are the same size as both use the same keyList
+           }
+        }
+    }
+
+
+    /**
+     * String content and feature values of a mention that are compared by the sieve
+     */
+    static class MentionFeatures {
+        Annotation ann;
+        FeatureMap feats;
+        String type;
+        String string;          // content feature or annotation string content
+        String lastWord;        // last word of string, used for headword and sortal matches
+        String headWord;        // case folded last word, looked up in the head word indexes
+        Set<Integer> sortalMatches = Collections.emptySet();        // mentions the last word can refer to as a sortal anaphor
+        Set<Integer> contentMatches = Collections.emptySet();       // mentions whose annFeatsToContent values match the last word
+        List matchingFeatList = new ArrayList();        // values of matchingFeats
+        List comparisonFeatList = new ArrayList();      // values of comparisonFeats
+        Integer corefId;        // existing link to an anaphor, only set for antecedents
+        Integer backRefId;      // existing link back to an antecedent, only set for anaphors
+    }
+
+
+    /**
+     *
+     * @param ann           mention annotation
+     * @param docContent    document content
+     * @return              string content and features of the mention
+     */
+    private MentionFeatures getMentionFeatures(Annotation ann, String docContent) {
+        MentionFeatures mention = new MentionFeatures();
+        mention.ann = ann;
+        mention.feats = ann.getFeatures();
+        mention.type = ann.getType();
+
+        // get essential features that must match between p1 and p2
+        populateFeatureList(mention.feats, mention.matchingFeatList, matchingFeats);
+
+        // get general features that should match between p1 and p2
+        populateFeatureList(mention.feats, mention.comparisonFeatList, comparisonFeats);
+
+        // String content of mention
+        String str = "";
+        if (contentFeature != null && !contentFeature.isEmpty()) {
+            Object feat = mention.feats.get(contentFeature);
+            if (feat != null ) {
+                str = feat.toString().trim();
+            }
+        }
+        if ( str.isEmpty() ) {
+            str = docContent.substring(ann.getStartNode().getOffset().intValue(), ann.getEndNode().getOffset().intValue()).trim();
+        }
+        mention.string = str;
+
+        // Get the last word of the string, we'll add this to the bpoc to see if we have a match
+        mention.lastWord = getLastWord(str);
+        mention.headWord = HeadWordIndex.foldCase(mention.lastWord);
+        return mention;
+    }
+
+
+    /**
+     *
+     * @param ann           candidate antecedent annotation
+     * @param docContent    document content
+     * @return              mention features including any existing coref id
+     */
+    MentionFeatures getAntecedentFeatures(Annotation ann, String docContent) {
+        MentionFeatures p1 = getMentionFeatures(ann, docContent);
+        Object tmpP1CorefId = p1.feats.get(corefIdFeature);
+        if (tmpP1CorefId instanceof String) {
+        	p1.corefId = Integer.valueOf((String)tmpP1CorefId);
+        } else {
+        	try {
+        		p1.corefId = (Integer) tmpP1CorefId;
+        	} catch (ClassCastException ce) {
+				p1.corefId = null;
+			}
+		}
+        return p1;
+    }
+
+
+    /**
+     *
+     * @param ann           candidate anaphor annotation
+     * @param docContent    document content
+     * @return              mention features including any existing back reference id
+     */
+    MentionFeatures getAnaphorFeatures(Annotation ann, String docContent) {
+        MentionFeatures p2 = getMentionFeatures(ann, docContent);
+        p2.backRefId = (Integer) p2.feats.get(backrefIdFeature);		// get link back to existing coreferring Mention - if it's there, we don't want to link again
+        return p2;
+    }
+
+
+    /**
+     *
+     * @return      true if the decisions of the current document are traced
+     */
+    boolean isDocumentTraced() {
+        return traceDocument;
+    }
+
+
+    /**
+     * Record a pair that is ruled out before it reaches the sieve, if the document is traced
+     * @param antecedentId      antecedent annotation id
+     * @param anaphorId         anaphor annotation id
+     * @param reason            why the pair was ruled out
+     */
+    void traceRejection(int antecedentId, int anaphorId, RejectionReason reason) {
+        if (traceDocument) {
+            trace.recordPair(antecedentId, anaphorId, SieveStage.None, reason, 0, 0.0, 0.0);
+        }
+    }
+
+
+    /**
+     *
+     * @param isDefiniteDescriptor  true if the anaphor is a definite descriptor
+     * @param sentenceDistance      number of sentences between the antecedent and the anaphor
+     * @return                      SentenceDistance or SortalSentenceDistance if the anaphor is too far from the antecedent, else None
+     */
+    RejectionReason getDistanceRejection(boolean isDefiniteDescriptor, int sentenceDistance) {
+        if (maxNominalSentenceDistance > -1 && maxNominalSentenceDistance < sentenceDistance) {
+            return RejectionReason.SentenceDistance;
+        }
+        if (isDefiniteDescriptor && maxSortalSentenceDistance > -1 && maxSortalSentenceDistance < sentenceDistance) {
+            return RejectionReason.SortalSentenceDistance;
+        }
+        return RejectionReason.None;
+    }
+
+
+    /**
+     * The stages of the sieve before the approximate string match, which only read the state of the PR so the scoring tasks can use them
+     * @param p1                    antecedent
+     * @param p2                    anaphor
+     * @param isDefiniteDescriptor  true if the anaphor is a definite descriptor
+     * @param path                  holder for the bit set of the ordinals of the stages tested, or null
+     * @return                      the stage that matched, or None
+     */
+    private SieveStage matchBeforeApproximate(MentionFeatures p1, MentionFeatures p2, boolean isDefiniteDescriptor, int[] path) {
+        boolean matchedPair = false;
+        String currType = p1.type;
+        Integer p1Id = p1.ann.getId();
+        SieveStage stage = SieveStage.None;
+        int tested = 0;
+
+        // First test - do strings match exactly
+        tested |= 1 << SieveStage.Exact.ordinal();
+        if (p1.string.length() >= shortestWord && p2.string.length() >= shortestWord && p1.string.equalsIgnoreCase(p2.string)) {
+            matchedPair = true;
+            stage = SieveStage.Exact;
+        } else {
+            // Filter through the sieve
+            if (isDefiniteDescriptor) {
+                tested |= 1 << SieveStage.DefiniteHeadword.ordinal();
+                // definite descriptor anaphors headword can be matched against antecedent headword, e.g. 'left basilar atelectasis' with 'the atelectasis'
+                if (p1.lastWord.equalsIgnoreCase(p2.lastWord)) {
+                    matchedPair = true;
+                    stage = SieveStage.DefiniteHeadword;
+                }
+                // Check for sortal anaphor match against antecedent type or feature value
+                else if(annTypeToSortal) {         // e.g. '{Location}garden square' to '{Location}that location'
+                    tested |= 1 << SieveStage.TypeToSortal.ordinal();
+                    if (p2.sortalMatches.contains(p1Id) && currType.equalsIgnoreCase(p2.lastWord) ) {
+                        matchedPair = true;
+                        stage = SieveStage.TypeToSortal;
+                    }
+                }
+                if (!matchedPair) { // e.g. type=city and 'the city'
+                    if (annFeatsToSortal != null && !annFeatsToSortal.isEmpty()) {
+                        tested |= 1 << SieveStage.FeatureToSortal.ordinal();
+                    }
+                    if (p2.sortalMatches.contains(p1Id)) {
+                        matchedPair = true;
+                        stage = SieveStage.FeatureToSortal;
+                    } else {    // we've got feature matches but nothing else, but as this is a sortal reference and close to the antecedent, raise a tentative match
+                        tested |= 1 << SieveStage.TentativeSortal.ordinal();
+                        if (!currType.equalsIgnoreCase("Person") && (p1.comparisonFeatList.size() > 0 || p1.matchingFeatList.size() > 0)) {
+                            matchedPair = true;
+                            stage = SieveStage.TentativeSortal;
+                        }
+                    }
+                }
+            }
+            if (!matchedPair && !skipContent && contentIndex != null) {
+                tested |= 1 << SieveStage.Content.ordinal();
+                if (p2.contentMatches.contains(p1Id) || p1.contentMatches.contains(p2.ann.getId())) {
+                    matchedPair = true;
+                    stage = SieveStage.Content;
+                }
+            }
+            // Headword only match - can be risky, but useful for Person matches, e.g. John Smith vs Mr Smith
+            if (!matchedPair && !isDefiniteDescriptor) {
+                tested |= 1 << SieveStage.PersonHeadword.ordinal();
+            }
+            if (!matchedPair && !isDefiniteDescriptor && getNumWords(p1.string) > 1 && p1.lastWord.equalsIgnoreCase(p2.lastWord) && currType.equalsIgnoreCase("Person")) {
+                matchedPair = true;
+                stage = SieveStage.PersonHeadword;
+            }
+        }
+        if (path != null) {
+            path[0] = tested;
+        }
+        return stage;
+    }
+
+
+    /**
+     *
+     * @param stage     a stage of the sieve before the approximate string match
+     * @return          the score of a match at that stage
+     */
+    private static double getStageScore(SieveStage stage) {
+        switch (stage) {
+            case Exact: return 1.0;
+            case DefiniteHeadword: return 0.8;
+            case TypeToSortal: return 0.75;
+            case FeatureToSortal: return 0.75;
+            case TentativeSortal: return 0.5;
+            case Content: return 0.65;
+            case PersonHeadword: return 0.70;
+            default: return 0.0;
+        }
+    }
+
+
+    /**
+     * Filter a candidate antecedent-anaphor pair through the sieve
+     * @param p1                    antecedent
+     * @param p2                    anaphor
+     * @param isDefiniteDescriptor  true if the anaphor is a definite descriptor
+     * @param metrics               string distance metrics
+     * @param threshold             minimum score for an approximate string match
+     * @return                      score of the match, or null if the pair does not corefer
+     */
+    Double matchPair(MentionFeatures p1, MentionFeatures p2, boolean isDefiniteDescriptor, StringDistance[] metrics, double threshold) {
+        checkBudget();
+        if (budgetExhausted) {
+            traceRejection(p1.ann.getId(), p2.ann.getId(), RejectionReason.BudgetExhausted);
+            return null;
+        }
+        boolean matchedPair = false;
+        SieveStage stage = SieveStage.None;
+        int[] path = traceDocument ? new int[1] : null;       // bit set of the ordinals of the stages tested, for decision tracing
+
+        // For simple lists of primitives, we could just do p1matchingFeats.equals(p2matchingFeats), but we might have more complex list item types
+        int numEssentialFeatureMatches = matchFeatureListIntersection(p1.matchingFeatList, p2.matchingFeatList);
+        int numFeatureMatches = matchFeatureListIntersection(p1.comparisonFeatList, p2.comparisonFeatList);
+        int nummatchingFeats = p1.matchingFeatList.size();
+        int numComparisonFeatures = p1.comparisonFeatList.size();
+
+        // fraction of comparison features that match over all comparison features
+        double featureMatchRatio = (numComparisonFeatures == 0) ? 1.0 : ((double)numFeatureMatches) / numComparisonFeatures;
+        double compareScore = 0.0;
+        // Check that essential features match and that p1 & p2 aren't already coreferenced nor do they appear in an exclude zone
+        if (numEssentialFeatureMatches == nummatchingFeats &&
+                featureMatchRatio >= featureMatchThreshold &&
+                p1.corefId == null && p2.backRefId == null ) {
+
+            stage = matchBeforeApproximate(p1, p2, isDefiniteDescriptor, path);
+            if (stage != SieveStage.None) {
+                matchedPair = true;
+                compareScore = getStageScore(stage);
+            }
+            // Approximate string match
+            else if (!skipApproximate && p1.string.length() >= shortestWord && p2.string.length() >= shortestWord) {
+                if (path != null) {
+                    path[0] |= 1 << SieveStage.Approximate.ordinal();
+                }
+                // Calculate string similarity if string lengths are longer than shortestWord
+                double cachedScore = (pairScoreCache == null) ? Double.NaN : pairScoreCache.get(PairScoreTable.getKey(p1.string, p2.string));
+                compareScore = !Double.isNaN(cachedScore) ? cachedScore : getSimilarityScore(metrics, p1.string, p2.string);
+                if (compareScore >= threshold) {
+                    matchedPair = true;
+                    stage = SieveStage.Approximate;
+                }
+            } // end if
+        } // end if
+
+        if (traceDocument) {
+            RejectionReason reason = RejectionReason.None;
+            if (!matchedPair) {
+                if (numEssentialFeatureMatches != nummatchingFeats) {
+                    reason = RejectionReason.EssentialFeatures;
+                } else if (featureMatchRatio < featureMatchThreshold) {
+                    reason = RejectionReason.FeatureMatchRatio;
+                } else if (p1.corefId != null || p2.backRefId != null) {
+                    reason = RejectionReason.AlreadyLinked;
+                } else if ((path[0] & (1 << SieveStage.Approximate.ordinal())) != 0) {
+                    reason = RejectionReason.BelowThreshold;
+                } else if (p1.string.length() < shortestWord || p2.string.length() < shortestWord) {
+                    reason = RejectionReason.ShortString;
+                } else if (skipApproximate) {
+                    reason = RejectionReason.ApproximateSkipped;
+                } else {
+                    reason = RejectionReason.NoStageMatched;
+                }
+            }
+            trace.recordPair(p1.ann.getId(), p2.ann.getId(), stage, reason, path[0], compareScore, featureMatchRatio);
+        }
+
+        matchedStage = stage;
+        return matchedPair ? Double.valueOf(compareScore) : null;
+    }
+
+
+    /**
+     *
+     * @param type      mention type
+     * @param fm        features of the mention
+     * @return          case folded type, if annTypeToSortal, and annFeatsToSortal values of the mention
+     */
+    private List<String> getSortalWords(String type, FeatureMap fm) {
+        List<String> words = new ArrayList<String>();
+        if (annTypeToSortal) {
+            words.add(HeadWordIndex.foldCase(type));
+        }
+        HeadWordIndex.addFeatureWords(fm, annFeatsToSortal, words);
+        return words;
+    }
+
+
+    /**
+     *
+     * @param fm        features of the mention
+     * @return          case folded annFeatsToContent values of the mention
+     */
+    private List<String> getContentWords(FeatureMap fm) {
+        List<String> words = new ArrayList<String>();
+        HeadWordIndex.addFeatureWords(fm, annFeatsToContent, words);
+        return words;
+    }
+
+
+    /**
+     * Create empty sortal and content indexes, or none if there is nothing to index
+     */
+    private void createHeadWordIndexes() {
+        sortalIndex = (annTypeToSortal || (annFeatsToSortal != null && !annFeatsToSortal.isEmpty())) ? new HeadWordIndex() : null;
+        contentIndex = (annFeatsToContent != null && !annFeatsToContent.isEmpty()) ? new HeadWordIndex() : null;
+        headWordIndex = null;
+        reindexOnLink = false;
+    }
+
+
+    /**
+     * Create empty indexes for the open antecedents of the SlidingWindow algorithm
+     */
+    void createWindowIndexes() {
+        createHeadWordIndexes();
+        if (contentIndex != null) {
+            headWordIndex = new HeadWordIndex();
+        }
+    }
+
+
+    /**
+     * Index the sortal words and content feature values of a mention, replacing any indexed before
+     * @param ann       mention annotation
+     */
+    private void indexMention(Annotation ann) {
+        if (sortalIndex != null) {
+            sortalIndex.add(ann.getId(), getSortalWords(ann.getType(), ann.getFeatures()));
+        }
+        if (contentIndex != null) {
+            contentIndex.add(ann.getId(), getContentWords(ann.getFeatures()));
+        }
+    }
+
+
+    /**
+     * Index the sortal words and content feature values of every mention that can take part in a pair
+     * @param mentionASList     mentions of each of inputASTypes
+     * @param inputAS           input annotation set
+     */
+    private void indexHeadWords(List<AnnotationSet> mentionASList, AnnotationSet inputAS) {
+        createHeadWordIndexes();
+        // features that markCoreference writes
+        List<String> linkKeys = new ArrayList<String>(Arrays.asList("score", corefIdFeature, corefTextFeature, backrefIdFeature, backrefTextFeature));
+        if (featsClone != null) {
+            linkKeys.addAll(featsClone);
+        }
+        reindexOnLink = (sortalIndex != null && annFeatsToSortal != null && !Collections.disjoint(annFeatsToSortal, linkKeys)) ||
+                (contentIndex != null && !Collections.disjoint(annFeatsToContent, linkKeys));
+        if (sortalIndex == null && contentIndex == null) {
+            return;
+        }
+        Set<String> indexedTypes = new HashSet<String>();
+        for (AnnotationSet mentionAS : mentionASList) {
+            if (mentionAS.isEmpty()) {
+                continue;
+            }
+            String annType = mentionAS.iterator().next().getType();
+            // anaphors may be any annotation of the same type, so any of them can go on to be an antecedent
+            if (indexedTypes.add(annType)) {
+                for (Annotation ann : inputAS.get(annType)) {
+                    indexMention(ann);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Look up the mentions that the head word of a mention matches in the sortal and content stages of the sieve
+     * @param mention               mention features
+     * @param isDefiniteDescriptor  true if the mention is a definite descriptor, i.e. may be a sortal anaphor
+     */
+    void findHeadWordMatches(MentionFeatures mention, boolean isDefiniteDescriptor) {
+        if (isDefiniteDescriptor && sortalIndex != null) {
+            mention.sortalMatches = sortalIndex.get(mention.headWord);
+        }
+        if (contentIndex != null && !skipContent) {
+            mention.contentMatches = contentIndex.get(mention.headWord);
+            // the sliding window only indexes its antecedents, so the anaphor's own values are joined with their head words
+            if (headWordIndex != null) {
+                boolean isCopy = false;
+                for (String word : getContentWords(mention.feats)) {
+                    Set<Integer> ids = headWordIndex.get(word);
+                    if (!ids.isEmpty()) {
+                        if (!isCopy) {
+                            mention.contentMatches = new HashSet<Integer>(mention.contentMatches);
+                            isCopy = true;
+                        }
+                        mention.contentMatches.addAll(ids);
+                    }
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Index an antecedent that has opened in the sliding window
+     * @param p1        antecedent
+     */
+    void indexOpenAntecedent(MentionFeatures p1) {
+        indexMention(p1.ann);
+        if (headWordIndex != null) {
+            headWordIndex.add(p1.ann.getId(), Collections.singletonList(p1.headWord));
+        }
+    }
+
+
+    /**
+     * Remove an antecedent that has left the sliding window from the indexes
+     * @param p1        antecedent
+     */
+    void unindexOpenAntecedent(MentionFeatures p1) {
+        Integer id = p1.ann.getId();
+        if (sortalIndex != null) {
+            sortalIndex.remove(id);
+        }
+        if (contentIndex != null) {
+            contentIndex.remove(id);
+        }
+        if (headWordIndex != null) {
+            headWordIndex.remove(id);
+        }
+    }
+
+
+    /**
+     *
+     * @return      the histograms of this PR, registered on first use
+     */
+    private DocumentStatistics getStatistics() {
+        if (statistics == null) {
+            statistics = new DocumentStatistics(getName());
+            if (statisticsFileURL != null) {
+                try {
+                    statistics.startDump(new File(statisticsFileURL.toURI()), statisticsInterval);
+                } catch (URISyntaxException use) {
+                    gate.util.Err.println("Invalid statisticsFileURL " + statisticsFileURL);
+                }
+            }
+        }
+        return statistics;
+    }
+
+
+    /**
+     * Record the timings and allocation of the current document
+     * @param setupTime             nanoseconds spent before the main loop
+     * @param mainLoopTime          nanoseconds spent in the main loop, less feature writing and link publishing
+     * @param crossDocumentTime     nanoseconds spent linking entities across documents, or -1 if they were not linked
+     * @param fingerprintTime       nanoseconds spent fingerprinting the document, or -1 if it was not fingerprinted
+     * @param chainExportTime       nanoseconds spent exporting the chains, or -1 if they were not exported
+     * @param allocatedBytesStart   bytes allocated by this thread when execute() started, or -1 if unknown
+     */
+    private void recordStatistics(long setupTime, long mainLoopTime, long crossDocumentTime, long fingerprintTime, long chainExportTime,
+            long allocatedBytesStart) {
+        DocumentStatistics stats = getStatistics();
+        stats.setupTime.record(setupTime / 1000);
+        stats.mainLoopTime.record(mainLoopTime / 1000);
+        stats.featureWritingTime.record(featureWritingTime / 1000);
+        if (publishLinks) {
+            stats.linkPublishingTime.record(linkPublishingTime / 1000);
+        }
+        if (crossDocumentTime >= 0) {
+            stats.crossDocumentTime.record(crossDocumentTime / 1000);
+        }
+        if (fingerprintTime >= 0) {
+            stats.fingerprintTime.record(fingerprintTime / 1000);
+        }
+        if (chainExportTime >= 0) {
+            stats.chainExportTime.record(chainExportTime / 1000);
+        }
+        stats.totalTime.record((System.nanoTime() - documentStartTime) / 1000);
+        long allocatedBytesEnd = DocumentStatistics.getThreadAllocatedBytes();
+        if (allocatedBytesStart >= 0 && allocatedBytesEnd >= 0) {
+            stats.allocatedBytes.record(allocatedBytesEnd - allocatedBytesStart);
+        }
+    }
+
+
+    /**
+     * Append the mentions of each of inputASTypes and their chains to chainFileURL
+     * @param inputAS       input annotation set
+     * @param docContent    document content
+     * @throws ExecutionException
+     */
+    private void exportChains(AnnotationSet inputAS, String docContent) throws ExecutionException {
+        try {
+            if (chainExporter == null) {
+                chainExporter = new ChainExporter(new File(chainFileURL.toURI()));
+            }
+            chainExporter.export(document.getName(), inputAS, inputFilters, corefIdFeature, backrefIdFeature, docContent);
+        } catch (URISyntaxException use) {
+            throw new ExecutionException(use);
+        } catch (IOException ioe) {
+            throw new ExecutionException(ioe);
+        }
+    }
+
+
+    /**
+     * Open the trace file on first use and decide whether to trace the current document
+     * @return      true if the decisions of the current document are traced
+     */
+    private boolean startTrace() {
+        if (trace == null) {
+            trace = DecisionTrace.open(traceFileURL, traceBufferSize, traceSampleRate, traceDocuments);
+            if (trace == null) {
+                return false;
+            }
+        }
+        return trace.startDocument(document.getName());
+    }
+
+
+    /**
+     * Fingerprint the parameters, content, spans and features that the chains of a document depend on, coreference features included
+     * @param inputAS       input annotation set
+     * @param docContent    document content
+     * @return              the fingerprint
+     * @throws ExecutionException
+     */
+    private long getDocumentFingerprint(AnnotationSet inputAS, String docContent) throws ExecutionException {
+        Fingerprint fingerprint = new Fingerprint();
+        Map<String, Object> parameters = new TreeMap<String, Object>();
+        for (Method setter : getParameterSetters()) {
+            String paramName = setter.getName().substring(3);
+            if (unfingerprintedParameters.contains(paramName)) {
+                continue;
+            }
+            try {
+                parameters.put(paramName, getClass().getMethod("get" + paramName).invoke(this));
+            } catch (Exception e) {
+                throw new ExecutionException("Unable to read parameter " + paramName + ": " + e);
+            }
+        }
+        for (Map.Entry<String, Object> entry : parameters.entrySet()) {
+            fingerprint.add(entry.getKey()).add(entry.getValue());
+        }
+        fingerprint.add(docContent);
+
+        Fingerprint element = new Fingerprint();
+        addSpans(fingerprint, element, inputAS.get(sentenceName));
+        addSpans(fingerprint, element, inputAS.get(tokenName));
+        for (AnnotationFilter excludeFilter : excludeFilters) {
+            addSpans(fingerprint, element, excludeFilter.apply(inputAS));
+        }
+
+        // Features of the candidate mentions that are read or written while chaining
+        List<String> featureList = new ArrayList<String>();
+        for (List<String> keyList : Arrays.asList(comparisonFeats, matchingFeats, annFeatsToSortal, annFeatsToContent, featsClone)) {
+            if (keyList != null) {
+                featureList.addAll(keyList);
+            }
+        }
+        featureList.addAll(Arrays.asList(contentFeature, corefIdFeature, backrefIdFeature, corefTextFeature, backrefTextFeature, "score"));
+        if (crossDocumentLinking) {
+            featureList.add(entityIdFeature);
+        }
+        Set<String> featureNames = new TreeSet<String>();
+        for (String featureName : featureList) {
+            if (featureName != null && !featureName.isEmpty()) {
+                featureNames.add(featureName);
+            }
+        }
+
+        Set<String> candidateTypes = new TreeSet<String>();
+        for (AnnotationFilter inputFilter : inputFilters) {
+            AnnotationSet mentionAS = inputFilter.apply(inputAS);
+            fingerprint.add(inputFilter.getExpression());
+            long members = 0;
+            for (Annotation ann : mentionAS) {
+                members += element.reset().add(ann.getId().longValue()).getValue();
+                candidateTypes.add(ann.getType());
+            }
+            fingerprint.add(members).add(mentionAS.size());
+        }
+        for (String annType : candidateTypes) {
+            AnnotationSet candidateAS = inputAS.get(annType);
+            long candidates = 0;
+            for (Annotation ann : candidateAS) {
+                element.reset().add(ann.getId().longValue()).add(ann.getStartNode().getOffset().longValue()).add(ann.getEndNode().getOffset().longValue());
+                FeatureMap feats = ann.getFeatures();
+                for (String featureName : featureNames) {
+                    element.add(feats.get(featureName));
+                }
+                candidates += element.getValue();
+            }
+            fingerprint.add(annType).add(candidates).add(candidateAS.size());
+        }
+        return fingerprint.getValue();
+    }
+
+    /**
+     * Add the spans of a set of annotations to a fingerprint, in any order
+     */
+    private static void addSpans(Fingerprint fingerprint, Fingerprint element, AnnotationSet annSet) {
+        long spans = 0;
+        for (Annotation ann : annSet) {
+            spans += element.reset().add(ann.getStartNode().getOffset().longValue()).add(ann.getEndNode().getOffset().longValue()).getValue();
+        }
+        fingerprint.add(spans).add(annSet.size());
+    }
+
+
+    /**
+     *
+     * @param metrics       string distance metrics
+     * @param str1          first string
+     * @param str2          second string
+     * @return              similarity of the strings, combining both metrics according to similarityComparison
+     */
+    double getSimilarityScore(StringDistance[] metrics, String str1, String str2) {
+        // the scorer keeps the last antecedent prepared, so it is reused for each anaphor compared with it
+        if (similarityScorer == null || !similarityScorer.isFor(metrics, similarityComparison)) {
+            similarityScorer = new SimilarityScorer(metrics, similarityComparison);
+        }
+        return similarityScorer.score(str1, str2);
+    }
+
+
+    private static synchronized ForkJoinPool getChunkPool() {
+        if (chunkPool == null) {
+            chunkPool = new ForkJoinPool();
+        }
+        return chunkPool;
+    }
+
+
+    /**
+     * Offset-sorted mentions of one type, read up front as AnnotationSet is not safe for concurrent use
+     */
+    private static class MentionPool {
+        MentionFeatures[] mentions;     // with any coref id and back reference the mention has before chaining
+        long[] starts;
+        long[] ends;
+        long[] windowEnds;      // end of the last sentence in reach of each mention, or -1 if it is not in a sentence
+        boolean[] isExcluded;   // true if the mention is within an exclusion region
+        boolean[] isDefinite;   // true if the mention is a definite descriptor
+        int[] sentencesBefore;  // number of sentences that start before each mention
+        int[] straddling;       // number of sentences that start before each mention and end after its start
+        int[] sentencesBeforeEnd;       // number of sentences that start before the end of each mention
+    }
+
+    /**
+     * Range of antecedents of a pool whose pairs are scored by one task
+     */
+    private static class PairScoreChunk {
+        final MentionPool pool;
+        final int from;
+        final int to;
+        PairScoreTable scores;      // filled by the task that scores the chunk
+
+        PairScoreChunk(MentionPool pool, int from, int to) {
+            this.pool = pool;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    /**
+     * Splits a list of chunks in half until each task scores a single chunk, with its own scorer and copy of the metrics
+     */
+    private class PairScoreTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<PairScoreChunk> chunks;
+        private final int from;
+        private final int to;
+        private final String metricName;
+
+        PairScoreTask(List<PairScoreChunk> chunks, int from, int to, String metricName) {
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+            this.metricName = metricName;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new PairScoreTask(chunks, from, mid, metricName), new PairScoreTask(chunks, mid, to, metricName));
+            } else if (to > from) {
+                scoreChunk(chunks.get(from), new SimilarityScorer(DistanceLearnerFactory.buildArray(metricName), similarityComparison));
+            }
+        }
+    }
+
+
+    /**
+     * Score the pairs that can reach the approximate string match on the shared fork-join pool, parallelChunkSize sentences of antecedents at a time
+     * @param mentionASList     mentions of each of inputASTypes
+     * @param inputAS           input annotation set
+     * @param sentences         sentence offsets of the document
+     * @param docContent        document content
+     * @param metricName        name of the string distance metrics
+     */
+    private void precomputePairScores(List<AnnotationSet> mentionASList, AnnotationSet inputAS, SentenceIndex sentences,
+            String docContent, String metricName) {
+        List<PairScoreChunk> chunks = new ArrayList<PairScoreChunk>();
+        Set<String> chunkedTypes = new HashSet<String>();
+        // the SlidingWindow algorithm only indexes its window, so the document is indexed while its pairs are scored
+        if (chainingAlgorithm == ChainingAlgorithm.SlidingWindow) {
+            indexHeadWords(mentionASList, inputAS);
+        }
+        for (AnnotationSet mentionAS : mentionASList) {
+            if (mentionAS.isEmpty()) {
+                continue;
+            }
+            String annType = mentionAS.iterator().next().getType();
+            // As with the Iterative algorithm, anaphors may be any annotation of the same type
+            if (!chunkedTypes.add(annType)) {
+                continue;
+            }
+            List<Annotation> candidateList = new ArrayList<Annotation>(inputAS.get(annType));
+            Collections.sort(candidateList, new OffsetComparator());
+            int numMentions = candidateList.size();
+            MentionPool pool = new MentionPool();
+            pool.mentions = new MentionFeatures[numMentions];
+            pool.starts = new long[numMentions];
+            pool.ends = new long[numMentions];
+            pool.windowEnds = new long[numMentions];
+            pool.isExcluded = new boolean[numMentions];
+            pool.isDefinite = new boolean[numMentions];
+            pool.sentencesBefore = new int[numMentions];
+            pool.straddling = new int[numMentions];
+            pool.sentencesBeforeEnd = new int[numMentions];
+            int[] firstSentences = new int[numMentions];
+            for (int i = 0; i < numMentions; i++) {
+                Annotation ann = candidateList.get(i);
+                pool.starts[i] = ann.getStartNode().getOffset();
+                pool.ends[i] = ann.getEndNode().getOffset();
+                pool.isExcluded[i] = isInExclusionRegion(inputAS, pool.starts[i], pool.ends[i]);
+                pool.isDefinite[i] = isDefiniteDescriptor(inputAS, pool.starts[i], pool.ends[i]);
+                MentionFeatures mention = getAntecedentFeatures(ann, docContent);
+                mention.backRefId = (Integer) mention.feats.get(backrefIdFeature);
+                findHeadWordMatches(mention, pool.isDefinite[i]);
+                pool.mentions[i] = mention;
+                pool.sentencesBefore[i] = sentences.countStartingBefore(pool.starts[i]);
+                pool.straddling[i] = sentences.countStraddling(pool.starts[i]);
+                pool.sentencesBeforeEnd[i] = sentences.countStartingBefore(pool.ends[i]);
+                int sentencePos = getCoveringSentence(inputAS, sentences, pool.starts[i], pool.ends[i]);
+                if (sentencePos < 0) {
+                    pool.windowEnds[i] = -1;
+                } else {
+                    int endSentencePos = sentences.size() - 1;
+                    if (maxNominalSentenceDistance > -1) {
+                        endSentencePos = Math.min(sentencePos + maxNominalSentenceDistance, endSentencePos);
+                    }
+                    pool.windowEnds[i] = sentences.getEnd(endSentencePos);
+                }
+                // unlike the covering sentence, this never goes down as the offsets go up
+                firstSentences[i] = sentences.countStartingBefore(pool.starts[i] + 1);
+            }
+            int chunkStart = 0;
+            for (int i = 1; i <= numMentions; i++) {
+                if (i == numMentions || firstSentences[i] >= firstSentences[chunkStart] + parallelChunkSize) {
+                    chunks.add(new PairScoreChunk(pool, chunkStart, i));
+                    chunkStart = i;
+                }
+            }
+        }
+        if (!chunks.isEmpty()) {
+            getChunkPool().invoke(new PairScoreTask(chunks, 0, chunks.size(), metricName));
+        }
+        if (chainingAlgorithm == ChainingAlgorithm.SlidingWindow) {
+            sortalIndex = null;
+            contentIndex = null;
+        }
+        int numScores = 0;
+        for (PairScoreChunk chunk : chunks) {
+            numScores += chunk.scores.size();
+        }
+        pairScoreCache = new PairScoreTable(numScores);
+        for (PairScoreChunk chunk : chunks) {
+            pairScoreCache.putAll(chunk.scores);
+            chunk.scores = null;
+        }
+    }
+
+
+    /**
+     * Score the pairs of a chunk that could reach the approximate string match of the sieve
+     * @param chunk         antecedents to score
+     * @param scorer        similarity scorer owned by the calling task
+     */
+    private void scoreChunk(PairScoreChunk chunk, SimilarityScorer scorer) {
+        MentionPool pool = chunk.pool;
+        int numMentions = pool.mentions.length;
+        PairScoreTable scoreTable = new PairScoreTable(chunk.to - chunk.from);
+        chunk.scores = scoreTable;
+        List<String> candidates = new ArrayList<String>();
+        for (int i = chunk.from; i < chunk.to; i++) {
+            // the scores are only used by approximate matching, which checkBudget sheds at half the budget
+            if (maxDocumentTime > -1 && (System.nanoTime() - documentStartTime) / 1000000 * 2 >= maxDocumentTime) {
+                return;
+            }
+            MentionFeatures p1 = pool.mentions[i];
+            if (pool.windowEnds[i] < 0 || pool.isExcluded[i] || p1.corefId != null || p1.string.length() < shortestWord) {
+                continue;
+            }
+            for (int j = i + 1; j < numMentions && pool.starts[j] < pool.windowEnds[i]; j++) {
+                // don't look backwards
+                if (pool.starts[j] <= pool.starts[i] || pool.ends[j] <= pool.ends[i]) {
+                    continue;
+                }
+                MentionFeatures p2 = pool.mentions[j];
+                if (pool.isExcluded[j] || p2.backRefId != null || p2.string.length() < shortestWord) {
+                    continue;
+                }
+                // the same sentence distance limits as the chaining pass
+                int sentenceDistance = pool.straddling[i] + pool.sentencesBeforeEnd[j] - pool.sentencesBefore[i] - 1;
+                if (getDistanceRejection(pool.isDefinite[j], sentenceDistance) != RejectionReason.None) {
+                    continue;
+                }
+                // the same feature tests that guard the sieve in matchPair
+                int numComparisonFeatures = p1.comparisonFeatList.size();
+                double featureMatchRatio = (numComparisonFeatures == 0) ? 1.0 :
+                        ((double)matchFeatureListIntersection(p1.comparisonFeatList, p2.comparisonFeatList)) / numComparisonFeatures;
+                if (matchFeatureListIntersection(p1.matchingFeatList, p2.matchingFeatList) != p1.matchingFeatList.size() ||
+                        featureMatchRatio < featureMatchThreshold) {
+                    continue;
+                }
+                // a pair that an earlier stage matches never reaches approximate matching
+                if (matchBeforeApproximate(p1, p2, pool.isDefinite[j], null) != SieveStage.None) {
+                    continue;
+                }
+                if (!scoreTable.contains(PairScoreTable.getKey(p1.string, p2.string))) {
+                    candidates.add(p2.string);
+                }
+            }
+            // score the antecedent against its whole window in one call
+            if (!candidates.isEmpty()) {
+                double[] scores = scorer.score(p1.string, candidates);
+                for (int k = 0; k < scores.length; k++) {
+                    scoreTable.put(PairScoreTable.getKey(p1.string, candidates.get(k)), scores[k]);
+                }
+                candidates.clear();
+            }
+        }
+    }
+
+
+    private SlidingWindowChainer getSlidingWindow() {
+        if (slidingWindow == null) {
+            slidingWindow = new SlidingWindowChainer(this);
+        }
+        return slidingWindow;
+    }
+
+
+    /**
+     *
+     * @return      the linker of entityIndexURL, created on first use
+     * @throws ExecutionException
+     */
+    private EntityLinker getEntityLinker() throws ExecutionException {
+        if (entityLinker == null) {
+            try {
+                entityLinker = new EntityLinker(this, (entityIndexURL == null) ? null : new File(entityIndexURL.toURI()), maxIndexedHeads);
+            } catch (URISyntaxException use) {
+                throw new ExecutionException(use);
+            } catch (IOException ioe) {
+                throw new ExecutionException(ioe);
+            }
+        }
+        return entityLinker;
+    }
+
+
+    /**
+     * Shed approximate matching at half of maxDocumentTime, content matching at three quarters, and all matching once it has passed
+     */
+    private void checkBudget() {
+        if (maxDocumentTime < 0 || budgetExhausted) {
+            return;
+        }
+        long elapsed = (System.nanoTime() - documentStartTime) / 1000000;
+        if (!skipApproximate && elapsed * 2 >= maxDocumentTime) {
+            skipApproximate = true;
+            shortenedStages.add(SieveStage.Approximate.toString());
+        }
+        if (!skipContent && elapsed * 4 >= maxDocumentTime * 3L) {
+            skipContent = true;
+            shortenedStages.add(SieveStage.Content.toString());
+        }
+        if (elapsed >= maxDocumentTime) {
+            budgetExhausted = true;
+            for (SieveStage stage : SieveStage.values()) {
+                if (stage != SieveStage.None) {
+                    shortenedStages.add(stage.toString());
+                }
+            }
+        }
+    }
+
+
+    /**
+     *
+     * @return      true if the latency budget of the document has run out
+     */
+    boolean isBudgetExhausted() {
+        checkBudget();
+        return budgetExhausted;
+    }
+
+
+    /**
+     *
+     * @param numCandidates     number of candidate anaphors already compared with the antecedent
+     * @return                  true if the antecedent may be compared with another candidate
+     */
+    boolean isUnderCandidateLimit(int numCandidates) {
+        if (maxCandidatesPerAntecedent > -1 && numCandidates >= maxCandidatesPerAntecedent) {
+            shortenedStages.add(candidateLimitStage);
+            return false;
+        }
+        return true;
+    }
+
+
+    /**
+     * Link an antecedent to its anaphor
+     * @param p1            antecedent
+     * @param p2            anaphor
+     * @param compareScore  score of the match
+     * @throws ExecutionException
+     */
+    void markCoreference(MentionFeatures p1, MentionFeatures p2, double compareScore) throws ExecutionException {
+        long startTime = collectStatistics ? System.nanoTime() : 0;
+        FeatureMap p1Feats = p1.feats;
+        FeatureMap p2Feats = p2.feats;
+    	// mark the coref
+        p1Feats.put("score", compareScore);
+        p1Feats.put(corefIdFeature, p2.ann.getId());
+        p1Feats.put(corefTextFeature, p2.string);		// coreferent text
+        // mark the backref
+        p2Feats.put(backrefIdFeature, p1.ann.getId());
+        p2Feats.put(backrefTextFeature, p1.string);
+
+        // Propagate the featsClone from antecedent to the anaphor
+        if (featsClone != null) {
+            for (String feat : featsClone) {
+                Object featVal = p1Feats.get(feat);
+                if (featVal != null) {
+                    p2Feats.put(feat, featVal);
+                }
+            }
+        }
+
+        // annFeatsToSortal and annFeatsToContent values may have changed
+        if (reindexOnLink) {
+            indexMention(p1.ann);
+            indexMention(p2.ann);
+        }
+
+        if (collectStatistics) {
+            featureWritingTime += System.nanoTime() - startTime;
+        }
+
+        if (publishLinks) {
+            long publishStartTime = collectStatistics ? System.nanoTime() : 0;
+            try {
+                linkPublisher.publishLink(new CoreferenceLink(document, p1.type,
+                        p1.ann.getId(), p1.ann.getStartNode().getOffset(), p1.ann.getEndNode().getOffset(), p1.string,
+                        p2.ann.getId(), p2.ann.getStartNode().getOffset(), p2.ann.getEndNode().getOffset(), p2.string,
+                        compareScore, matchedStage));
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new ExecutionException("Execution of coreference was interrupted.", ie);
+            }
+            if (collectStatistics) {
+                linkPublishingTime += System.nanoTime() - publishStartTime;
+            }
+        }
+    }
+
+
+    /**
+     * Tell CoreferenceListeners that the chains of one of inputASTypes are complete
+     * @param typeIndex     index of the entry in inputASTypes
+     * @throws ExecutionException
+     */
+    private void publishChainsComplete(int typeIndex) throws ExecutionException {
+        if (publishLinks) {
+            long publishStartTime = collectStatistics ? System.nanoTime() : 0;
+            try {
+                linkPublisher.publishChainsComplete(document, inputASTypes.get(typeIndex));
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new ExecutionException("Execution of coreference was interrupted.", ie);
+            }
+            if (collectStatistics) {
+                linkPublishingTime += System.nanoTime() - publishStartTime;
+            }
+        }
+    }
+
+
+    /**
+     * Record the candidate pairs of the document to pairScoreFileURL for ThresholdSweep
+     * @param mentionASList     mentions of each of inputASTypes
+     * @param inputAS           input annotation set
+     * @param sentences         sentence offsets of the document
+     * @param docContent        document content
+     * @param metrics           string distance metrics
+     * @param metricName        name of the string distance metrics
+     * @throws ExecutionException
+     */
+    private void recordPairScores(List<AnnotationSet> mentionASList, AnnotationSet inputAS, SentenceIndex sentences,
+            String docContent, StringDistance[] metrics, String metricName) throws ExecutionException {
+        PairScoreFile.DocumentBlock block = new PairScoreFile.DocumentBlock();
+        PairScoreFile.StringTable strings = new PairScoreFile.StringTable();
+        block.documentName = document.getName();
+        block.metricName = metricName;
+        block.numMetrics = (metrics == null) ? 0 : metrics.length;
+        block.shortestWord = shortestWord;
+        block.annTypeToSortal = annTypeToSortal;
+        block.numComparisonFeats = (comparisonFeats == null) ? 0 : comparisonFeats.size();
+        block.tentativeSortal = block.numComparisonFeats > 0 || (matchingFeats != null && matchingFeats.size() > 0);
+        block.propagateContent = contentFeature != null && contentFeature.equals(backrefTextFeature);
+        block.maxCandidatesPerAntecedent = maxCandidatesPerAntecedent;
+
+        // As in the SlidingWindow algorithm, there is one sorted pool of candidate anaphors for each annotation type
+        List<Annotation> mentionList = new ArrayList<Annotation>();
+        List<Integer> poolEnds = new ArrayList<Integer>();          // end of the pool of each mention
+        Map<String, Integer> poolStarts = new HashMap<String, Integer>();
+        Map<Integer, Integer> mentionPos = new HashMap<Integer, Integer>();
+        int numLists = mentionASList.size();
+        block.listPoolStart = new int[numLists];
+        block.listPoolEnd = new int[numLists];
+        for (int i = 0; i < numLists; i++) {
+            AnnotationSet mentionAS = mentionASList.get(i);
+            if (mentionAS.isEmpty()) {
+                continue;
+            }
+            String annType = mentionAS.iterator().next().getType();
+            Integer poolStart = poolStarts.get(annType);
+            if (poolStart == null) {
+                poolStart = mentionList.size();
+                List<Annotation> candidateList = new ArrayList<Annotation>(inputAS.get(annType));
+                Collections.sort(candidateList, new OffsetComparator());
+                for (Annotation ann : candidateList) {
+                    mentionPos.put(ann.getId(), mentionList.size());
+                    mentionList.add(ann);
+                    poolEnds.add(poolStart + candidateList.size());
+                }
+                poolStarts.put(annType, poolStart);
+            }
+            block.listPoolStart[i] = poolStart;
+            block.listPoolEnd[i] = poolEnds.get(poolStart);
+        }
+
+        PairScoreFile.IntColumn listMembers = new PairScoreFile.IntColumn();
+        block.listMemberStart = new int[numLists + 1];
+        for (int i = 0; i < numLists; i++) {
+            block.listMemberStart[i] = listMembers.size();
+            int[] members = new int[mentionASList.get(i).size()];
+            int j = 0;
+            for (Annotation ann : mentionASList.get(i)) {
+                members[j++] = mentionPos.get(ann.getId());
+            }
+            Arrays.sort(members);
+            for (int member : members) {
+                listMembers.add(member);
+            }
+        }
+        block.listMemberStart[numLists] = listMembers.size();
+        block.listMembers = listMembers.toArray();
+
+        // Mentions as they are before the run
+        int numMentions = mentionList.size();
+        SlidingWindowChainer.OpenAntecedent[] antecedents = new SlidingWindowChainer.OpenAntecedent[numMentions];
+        MentionFeatures[] anaphors = new MentionFeatures[numMentions];
+        boolean[] isExcluded = new boolean[numMentions];
+        PairScoreFile.IntColumn contentValues = new PairScoreFile.IntColumn();
+        block.mentionId = new int[numMentions];
+        block.mentionType = new int[numMentions];
+        block.mentionString = new int[numMentions];
+        block.mentionFlags = new byte[numMentions];
+        block.contentStart = new int[numMentions + 1];
+        for (int k = 0; k < numMentions; k++) {
+            Annotation ann = mentionList.get(k);
+            SlidingWindowChainer.OpenAntecedent antecedent = new SlidingWindowChainer.OpenAntecedent();
+            if (getSlidingWindow().openAntecedent(antecedent, ann, inputAS, sentences, docContent)) {
+                antecedents[k] = antecedent;
+                block.mentionFlags[k] |= PairScoreFile.CAN_OPEN;
+            }
+            MentionFeatures p2 = getAnaphorFeatures(ann, docContent);
+            anaphors[k] = p2;
+            isExcluded[k] = isInExclusionRegion(inputAS, ann.getStartNode().getOffset(), ann.getEndNode().getOffset());
+            if (p2.backRefId == null && !isExcluded[k]) {
+                block.mentionFlags[k] |= PairScoreFile.CLAIMABLE;
+            }
+            block.mentionId[k] = ann.getId();
+            block.mentionType[k] = strings.add(p2.type);
+            block.mentionString[k] = strings.add(p2.string);
+
+            // annFeatsToContent values that can match an antecedent head word, all ignoring case
+            block.contentStart[k] = contentValues.size();
+            for (String word : getContentWords(p2.feats)) {
+                contentValues.add(strings.add(word) * 2);
+            }
+        }
+        block.contentStart[numMentions] = contentValues.size();
+        block.contentValues = contentValues.toArray();
+
+        // Candidate pairs within the sentence window of each antecedent
+        PairScoreFile.IntColumn pairAnaphors = new PairScoreFile.IntColumn();
+        PairScoreFile.IntColumn pairFeatureMatches = new PairScoreFile.IntColumn();
+        PairScoreFile.IntColumn pairFlags = new PairScoreFile.IntColumn();
+        PairScoreFile.DoubleColumn pairScores1 = new PairScoreFile.DoubleColumn();
+        PairScoreFile.DoubleColumn pairScores2 = new PairScoreFile.DoubleColumn();
+        Boolean[] isDefinite = new Boolean[numMentions];
+        block.pairStart = new int[numMentions + 1];
+
+        for (int a = 0; a < numMentions; a++) {
+            if (isInterrupted() ) {
+                throw new ExecutionException("Execution of coreference was interrupted.");
+            }
+            block.pairStart[a] = pairAnaphors.size();
+            SlidingWindowChainer.OpenAntecedent antecedent = antecedents[a];
+            if (antecedent == null) {
+                continue;
+            }
+            MentionFeatures p1 = antecedent.mention;
+            List<String> p1SortalWords = new ArrayList<String>();
+            HeadWordIndex.addFeatureWords(p1.feats, annFeatsToSortal, p1SortalWords);
+            List<String> p1ContentWords = getContentWords(p1.feats);
+            StringWrapper sw1 = (metrics == null) ? null : metrics[0].prepare(p1.string);
+            int poolEnd = poolEnds.get(a);
+            for (int m = a + 1; m < poolEnd; m++) {
+                Annotation ann = mentionList.get(m);
+                long annStart = ann.getStartNode().getOffset();
+                long annEnd = ann.getEndNode().getOffset();
+                if (annStart >= antecedent.windowEnd) {
+                    break;
+                }
+                // both algorithms skip excluded anaphors before counting them as candidates, but count those with a back reference
+                if (annStart <= antecedent.start || annEnd <= antecedent.end || isExcluded[m]) {
+                    continue;
+                }
+                if (isDefinite[m] == null) {
+                    isDefinite[m] = isDefiniteDescriptor(inputAS, annStart, annEnd);
+                    if (isDefinite[m]) {
+                        block.mentionFlags[m] |= PairScoreFile.DEFINITE;
+                    }
+                }
+                int sentenceDistance = antecedent.straddling + sentences.countStartingBefore(annEnd) - antecedent.sentencesBefore - 1;
+                if ((maxNominalSentenceDistance > -1 && maxNominalSentenceDistance < sentenceDistance) ||
+                   (isDefinite[m] && maxSortalSentenceDistance > -1 && maxSortalSentenceDistance < sentenceDistance)
+                   ) {
+                    continue;
+                }
+
+                MentionFeatures p2 = anaphors[m];
+                int flags = 0;
+                if (matchFeatureListIntersection(p1.matchingFeatList, p2.matchingFeatList) == p1.matchingFeatList.size()) {
+                    flags |= PairScoreFile.ESSENTIAL_MATCH;
+                }
+                if (p1SortalWords.contains(p2.headWord)) {
+                    flags |= PairScoreFile.SORTAL_MATCH;
+                }
+                if (p1ContentWords.contains(p2.headWord)) {
+                    flags |= PairScoreFile.CONTENT_MATCH;
+                }
+                double metric1Score = Double.NaN;
+                double metric2Score = Double.NaN;
+                if (metrics != null && p1.string.length() >= shortestWord && p2.string.length() >= shortestWord) {
+                    StringWrapper sw2 = metrics[0].prepare(p2.string);
+                    metric1Score = metrics[0].score(sw1, sw2);
+                    if (metrics.length == 2) {
+                        metric2Score = metrics[1].score(sw1, sw2);
+                    }
+                }
+                pairAnaphors.add(m);
+                pairFeatureMatches.add(matchFeatureListIntersection(p1.comparisonFeatList, p2.comparisonFeatList));
+                pairFlags.add(flags);
+                pairScores1.add(metric1Score);
+                pairScores2.add(metric2Score);
+            }
+        }
+        block.pairStart[numMentions] = pairAnaphors.size();
+
+        block.pairAnaphor = pairAnaphors.toArray();
+        block.pairFeatureMatches = pairFeatureMatches.toArray();
+        block.pairFlags = pairFlags.toByteArray();
+        block.pairScore1 = pairScores1.toArray();
+        block.pairScore2 = pairScores2.toArray();
+        block.strings = strings.toArray();
+
+        try {
+            PairScoreFile.append(new File(pairScoreFileURL.toURI()), block);
+        } catch (URISyntaxException use) {
+            throw new ExecutionException(use);
+        } catch (IOException ioe) {
+            throw new ExecutionException(ioe);
+        }
+    }
+
+
+    @Override
+    public Resource init() throws ResourceInstantiationException {
+        gracefulExit = false;
+
+        // parameters given when the PR was created take precedence over a configuration snapshot
+        Set<String> explicitParameters = getExplicitParameters();
+
+        // Default types are Person, Organization, Location
+        if (inputASTypes == null) {
+            inputASTypes = new ArrayList<String>();
+            inputASTypes.add(ANNIEConstants.PERSON_ANNOTATION_TYPE);
+            inputASTypes.add(ANNIEConstants.ORGANIZATION_ANNOTATION_TYPE);
+            inputASTypes.add(ANNIEConstants.LOCATION_ANNOTATION_TYPE);
+        }
+        
+        if (annFeatsToSortal == null) {
+            annFeatsToSortal = new ArrayList<String>();
+            annFeatsToSortal.add("type");
+        }
+
+        if (featsClone == null) {
+            featsClone = new ArrayList<String>();
+            featsClone.add(backrefTextFeature);
+        }
+
+        if (configurationSnapshotURL != null) {
+            try {
+                applyConfigurationSnapshot(ConfigurationSnapshot.read(configurationSnapshotURL), explicitParameters);
+            } catch (IOException ioe) {
+                throw new ResourceInstantiationException("Unable to read configuration snapshot " + configurationSnapshotURL, ioe);
+            }
+        }
+        return this;
+    } // end init()
+
+
+    /**
+     *
+     * @return      setters of the CREOLE parameters of this PR
+     */
+    private List<Method> getParameterSetters() {
+        List<Method> setters = new ArrayList<Method>();
+        for (Method method : getClass().getMethods()) {
+            if (method.getName().startsWith("set") && method.getParameterTypes().length == 1 &&
+                    method.isAnnotationPresent(CreoleParameter.class)) {
+                setters.add(method);
+            }
+        }
+        return setters;
     }
 
 
     /**
      *
-     * @param fm            A FeatureMap
-     * @param keyList       List of String keys into FeatureMap
-     * @param value         A value we are looking for in FeatureMap with one of the given keys
-     * @return              True if value found in FeatureMap for one of keyList
+     * @return      names of the parameters that are set, and not to their CREOLE default value
      */
-    private boolean matchValueInFeatureMap(FeatureMap fm, List<String> keyList, Object value) {
-    	boolean hasMatch = false;
-        if (keyList != null) {
-            for (String key : keyList) {
-                Object feat = fm.get(key);
-                if (feat instanceof List || feat instanceof Set) {
-                	hasMatch = ((Collection)feat).contains(value);
-                } else if (feat instanceof String && value instanceof String) {
-                	hasMatch = ((String)feat).equalsIgnoreCase((String)value)   ;
-                } else if (feat != null && value != null) {
-                    hasMatch = feat.equals(value) ;
-                }
-                if (hasMatch) { return true; }
+    private Set<String> getExplicitParameters() {
+        Set<String> explicitParameters = new HashSet<String>();
+        for (Method setter : getParameterSetters()) {
+            String paramName = setter.getName().substring(3);
+            Object value;
+            try {
+                value = getClass().getMethod("get" + paramName).invoke(this);
+            } catch (Exception e) {
+                continue;
+            }
+            if (value == null) {
+                continue;
+            }
+            String defaultValue = setter.getAnnotation(CreoleParameter.class).defaultValue();
+            boolean isDefault;
+            if (defaultValue.length() == 0) {
+                isDefault = false;
+            } else if (value instanceof Number) {
+                isDefault = Double.parseDouble(defaultValue) == ((Number)value).doubleValue();
+            } else if (value instanceof Enum) {
+                isDefault = ((Enum<?>)value).name().equals(defaultValue);
+            } else {
+                isDefault = value.toString().equals(defaultValue);
+            }
+            if (!isDefault) {
+                explicitParameters.add(paramName);
             }
         }
-        return false;
+        return explicitParameters;
     }
 
-   
-    
+
     /**
-     * Populate a new list with the values of feature keys specified in keyList
-     * @param fm            FeatureMap
-     * @param newList       New list to be populated
-     * @param keyList    List of feature keys for which we want values (including null)
+     * Write the parameters of this PR, and the state compiled from them, to a snapshot for configurationSnapshotURL
+     * @param file      snapshot file
+     * @throws IOException
      */
-    private void populateFeatureList(FeatureMap fm, List newList, List<String> keyList) {
-        if (keyList != null) {
-           for (String str : keyList) {
-               Object feat = fm.get(str);
-               newList.add(feat);   
-               // null is OK, shows that feature is missing and will ensure that
-               // lists for both antecedent and anaphor are the same size as both use the same keyList
-           }
+    public void writeConfigurationSnapshot(File file) throws IOException {
+        ConfigurationSnapshot snapshot = new ConfigurationSnapshot();
+        for (Method setter : getParameterSetters()) {
+            String paramName = setter.getName().substring(3);
+            if (paramName.equals("ConfigurationSnapshotURL")) {
+                continue;
+            }
+            try {
+                Object value = getClass().getMethod("get" + paramName).invoke(this);
+                // URLs are written as strings, as a serialised URL resolves its host when it is hashed
+                snapshot.parameters.put(paramName, value instanceof URL ? ((URL)value).toExternalForm() : value);
+            } catch (Exception e) {
+                throw new IOException("Unable to read parameter " + paramName + ": " + e);
+            }
         }
+        compileFilters();
+        snapshot.inputFilters = inputFilters;
+        snapshot.excludeFilters = excludeFilters;
+        snapshot.metricName = getMetricName();
+        snapshot.write(file);
     }
-    
-
-    @Override
-    public Resource init() throws ResourceInstantiationException {
-        gracefulExit = false;
 
-        // Default types are Person, Organization, Location
-        inputASTypes = new ArrayList<String>();
-        inputASTypes.add(ANNIEConstants.PERSON_ANNOTATION_TYPE);
-        inputASTypes.add(ANNIEConstants.ORGANIZATION_ANNOTATION_TYPE);
-        inputASTypes.add(ANNIEConstants.LOCATION_ANNOTATION_TYPE);
-        
-        annFeatsToSortal = new ArrayList<String>();
-        annFeatsToSortal.add("type");
 
-        featsClone = new ArrayList<String>();
-        featsClone.add(backrefTextFeature);
-        return this;
-    } // end init()
+    /**
+     * Set the parameters of this PR that were not given explicitly from a snapshot and take over its compiled state
+     * @param snapshot              configuration snapshot
+     * @param explicitParameters    parameters to leave as they are
+     * @throws ResourceInstantiationException
+     */
+    private void applyConfigurationSnapshot(ConfigurationSnapshot snapshot, Set<String> explicitParameters) throws ResourceInstantiationException {
+        for (Method setter : getParameterSetters()) {
+            String paramName = setter.getName().substring(3);
+            if (snapshot.parameters.containsKey(paramName) && !explicitParameters.contains(paramName)) {
+                try {
+                    Object value = snapshot.parameters.get(paramName);
+                    if (value instanceof String && setter.getParameterTypes()[0] == URL.class) {
+                        value = new URL((String)value);
+                    }
+                    setter.invoke(this, value);
+                } catch (Exception e) {
+                    throw new ResourceInstantiationException("Unable to set parameter " + paramName + " from configuration snapshot", e);
+                }
+            }
+        }
+        inputFilters = snapshot.inputFilters;
+        excludeFilters = snapshot.excludeFilters;
+        compiledMetricName = snapshot.metricName;
+        compiledMetrics = null;
+        if (compiledMetricName.length() > 0) {
+            try {
+                compiledMetrics = DistanceLearnerFactory.buildArray(compiledMetricName);
+            } catch (IllegalStateException ce) {
+                throw new ResourceInstantiationException("Unable to create string metric from " + compiledMetricName, ce);
+            }
+        }
+    }
 
 
     @Override
     public void execute() throws ExecutionException {
+        publishLinks = false;
+        try {
+            processDocument();
+        } finally {
+            // the indexes and precomputed scores of a document can be large, so don't keep them if it failed
+            sortalIndex = null;
+            contentIndex = null;
+            headWordIndex = null;
+            pairScoreCache = null;
+
+            // Wait for listeners to receive every link of the document, so that it is not unloaded under them,
+            // and tell them it is complete even if it was skipped or failed
+            if (publishLinks) {
+                publishLinks = false;
+                try {
+                    linkPublisher.publishDocumentComplete(document);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Chain the mentions of the current document
+     * @throws ExecutionException
+     */
+    private void processDocument() throws ExecutionException {
         interrupted = false;
         // quit if setup failed
         if (gracefulExit) {
@@ -410,6 +1915,19 @@ public class BaselineCoreference extends AbstractLanguageAnalyser implements Pro
             return;
         }
 
+        documentStartTime = System.nanoTime();
+        skipApproximate = false;
+        skipContent = false;
+        budgetExhausted = false;
+        shortenedStages = new LinkedHashSet<String>();
+        featureWritingTime = 0;
+        linkPublishingTime = 0;
+        publishLinks = (linkPublisher != null) && linkPublisher.hasListeners();
+        if (publishLinks) {
+            linkPublisher.start(linkBufferSize);
+        }
+        long allocatedBytesStart = collectStatistics ? DocumentStatistics.getThreadAllocatedBytes() : -1;
+
         // lookup the whole term first, if no results, then lookup individual tokens within the word
         AnnotationSet inputAS = (inputASName == null || inputASName.trim().length() == 0) ? document.getAnnotations() : document.getAnnotations(inputASName);
         AnnotationSet outputAS = (outputASName == null || outputASName.trim().length() == 0) ? document.getAnnotations() : document.getAnnotations(outputASName);
@@ -417,30 +1935,49 @@ public class BaselineCoreference extends AbstractLanguageAnalyser implements Pro
         // Get all Tokens that are words
         FeatureMap tokFeats = Factory.newFeatureMap();
 
-        // Create a string distance metric
-        StringDistance[] metrics = null;
-
-        if (similarityMeasure1 != SimilarityMeasure.None) {
-            String metric = similarityMeasure1.toString();
-            if (similarityMeasure2 != SimilarityMeasure.None && similarityMeasure2 != similarityMeasure1) {
-                metric = metric + "/" + similarityMeasure2.toString();
-            }
-            try {
-                metrics = DistanceLearnerFactory.buildArray(metric);
-            } catch (IllegalStateException ce) {
-                gate.util.Err.println("Unable to create string metric from " + similarityMeasure1.toString());
-                cleanup();
-                fireProcessFinished();
-                gracefulExit = true;
-                return;
+        // Create a string distance metric, unless the similarity measures are unchanged since the last document
+        String metric = getMetricName();
+        if (!metric.equals(compiledMetricName)) {
+            compiledMetrics = null;
+            if (metric.length() > 0) {
+                try {
+                    compiledMetrics = DistanceLearnerFactory.buildArray(metric);
+                } catch (IllegalStateException ce) {
+                    gate.util.Err.println("Unable to create string metric from " + similarityMeasure1.toString());
+                    cleanup();
+                    fireProcessFinished();
+                    gracefulExit = true;
+                    return;
+                }
             }
+            compiledMetricName = metric;
         }
+        StringDistance[] metrics = compiledMetrics;
+        compileFilters();
         
         double threshold = stringMatchThreshold.doubleValue();
 
         // Document content
         String docContent = document.getContent().toString();
 		int docLen = docContent.length();
+
+        // Skip documents that have not changed since they were last processed, keeping their coreference features.
+        // Their heads must still be linked across documents unless the entity index was saved with them in an earlier run.
+        if (skipUnchangedDocuments && (!crossDocumentLinking || getEntityLinker().isLoaded())) {
+            String fingerprint = Long.toHexString(getDocumentFingerprint(inputAS, docContent));
+            if (fingerprint.equals(document.getFeatures().get(fingerprintFeature))) {
+                fireStatusChanged(document.getName() + " is unchanged, skipping coreference");
+                if (chainFileURL != null) {
+                    exportChains(inputAS, docContent);
+                }
+                if (collectStatistics) {
+                    getStatistics().skippedTime.record((System.nanoTime() - documentStartTime) / 1000);
+                }
+                fireProcessFinished();
+                return;
+            }
+        }
+        traceDocument = (traceFileURL != null) && startTrace();
 		
         // Create a List of Lists so that we compare input annots of the same type in separate lists
         List<List<Annotation>> inputAnnsList = new ArrayList<List<Annotation>>();
@@ -449,32 +1986,77 @@ public class BaselineCoreference extends AbstractLanguageAnalyser implements Pro
         List<Annotation> sentenceList = new ArrayList<Annotation>(inputAS.get(sentenceName));
         int numSentences = sentenceList.size();
         Collections.sort(sentenceList, new OffsetComparator());
+        SentenceIndex sentenceIndex = (chainingAlgorithm == ChainingAlgorithm.SlidingWindow || pairScoreFileURL != null || parallelChunkSize > 0) ? new SentenceIndex(sentenceList) : null;
         
         // We allow annType of the form
         // Annotation.feature == value or just Annotation. That way, we can have Mention.type == Foo or just Foo
-        for (String annType : inputASTypes) {
-            AnnotationSet mentionAS = getFilteredAS(inputAS, annType);    // AS to hold the mentions we want to compare
-            inputAnnsList.add(new ArrayList<Annotation>(mentionAS));
+        List<AnnotationSet> mentionASList = new ArrayList<AnnotationSet>();
+        for (AnnotationFilter inputFilter : inputFilters) {
+            AnnotationSet mentionAS = inputFilter.apply(inputAS);    // AS to hold the mentions we want to compare
+            mentionASList.add(mentionAS);
+            // The SlidingWindow algorithm streams over a MentionStore instead of copying the mentions
+            if (chainingAlgorithm != ChainingAlgorithm.SlidingWindow) {
+                inputAnnsList.add(new ArrayList<Annotation>(mentionAS));
+            }
+        }
+
+        // Index the sortal words and content feature values of every candidate mention.
+        // The SlidingWindow algorithm only indexes its open antecedents.
+        if (chainingAlgorithm != ChainingAlgorithm.SlidingWindow) {
+            indexHeadWords(mentionASList, inputAS);
+        }
+
+        // Each setup phase may use up the budget, in which case the rest are skipped and no links are made
+        checkBudget();
+        // Record the candidate pairs before any of them are linked
+        if (pairScoreFileURL != null && !budgetExhausted) {
+            fireStatusChanged("Recording candidate pairs of " + document.getName());
+            recordPairScores(mentionASList, inputAS, sentenceIndex, docContent, metrics, metric);
+            checkBudget();
         }
         
+        // Score the candidate pairs of each chunk of sentences in parallel before the sequential chaining pass
+        if (parallelChunkSize > 0 && metrics != null && !budgetExhausted) {
+            fireStatusChanged("Scoring candidate pairs of " + document.getName());
+            precomputePairScores(mentionASList, inputAS, sentenceIndex, docContent, metric);
+            checkBudget();
+        }
+
+        long setupEndTime = System.nanoTime();
         fireStatusChanged("Performing nominal coreference on " + document.getName());
         fireProgressChanged(0);
         int progress = 0;
+
+        if (chainingAlgorithm == ChainingAlgorithm.SlidingWindow) {
+            for (int typeIndex = 0; typeIndex < mentionASList.size(); typeIndex++) {
+                AnnotationSet mentionAS = mentionASList.get(typeIndex);
+                progress++;
+                fireProgressChanged(progress / docLen);
+                // Document may not contain any of the mentions we are interested in
+                if (!mentionAS.isEmpty()) {
+                    getSlidingWindow().chain(mentionAS, inputAS, sentenceIndex, docContent, metrics, threshold);
+                }
+                publishChainsComplete(typeIndex);
+            }
+        }
         
 		// Main loop
-        for (List<Annotation> inputAnns : inputAnnsList) {
+        for (int typeIndex = 0; typeIndex < inputAnnsList.size(); typeIndex++) {
+            List<Annotation> inputAnns = inputAnnsList.get(typeIndex);
         	progress++;
         	fireProgressChanged(progress / docLen);
         	
             Collections.sort(inputAnns, new OffsetComparator());
             // Document may not contain any of the inputAnns we are interested in
             if (inputAnns == null || inputAnns.isEmpty()) {
+                publishChainsComplete(typeIndex);
             	continue;
             }
 
             Annotation curr = inputAnns.iterator().next();
             // Shouldn't happen but if document has been modified, it can occur
             if (curr == null) {
+                publishChainsComplete(typeIndex);
             	continue;
             }
             boolean matchedPair = false;
@@ -494,6 +2076,10 @@ public class BaselineCoreference extends AbstractLanguageAnalyser implements Pro
                 if (isInterrupted() ) {
                     throw new ExecutionException("Execution of coreference was interrupted.");
                 }
+                checkBudget();
+                if (budgetExhausted) {
+                    break;
+                }
                 
                 // Get sentences that cover this candidate antecedent
                 AnnotationSet currSentenceAS = inputAS.getCovering(sentenceName, currStart, currEnd);
@@ -506,42 +2092,8 @@ public class BaselineCoreference extends AbstractLanguageAnalyser implements Pro
                     continue;
                 }
 
-                FeatureMap p1Feats = curr.getFeatures();
-                
-                // get essential features that must match between p1 and p2
-                List p1matchingFeats = new ArrayList();
-                populateFeatureList(p1Feats, p1matchingFeats, matchingFeats);
-                
-                // get general features that should match between p1 and p2
-                List p1ComparisonFeatures = new ArrayList();
-                populateFeatureList(p1Feats, p1ComparisonFeatures, comparisonFeats);
-
-                // String content of antecedent
-                String p1String = "";
-                if (contentFeature != null && !contentFeature.isEmpty()) {
-                    Object feat = p1Feats.get(contentFeature);
-                    if (feat != null ) {
-                        p1String = feat.toString().trim();
-                    }
-                } 
-                if ( p1String.isEmpty() ) {
-                    p1String = docContent.substring(currStart.intValue(), currEnd.intValue()).trim();
-                }
-				
-                Integer p1CorefId = null;
-                Object tmpP1CorefId = p1Feats.get(corefIdFeature);
-                if (tmpP1CorefId instanceof String) {
-                	p1CorefId = Integer.valueOf((String)tmpP1CorefId);
-                } else {
-                	try {
-                		p1CorefId = (Integer) tmpP1CorefId;
-                	} catch (ClassCastException ce) {
-						p1CorefId = null;
-					}
-				}
-				
-                // Get the last word of the string, we'll add this to the bpoc to see if we have a match
-                String p1LastWord = getLastWord(p1String);
+                MentionFeatures p1 = getAntecedentFeatures(curr, docContent);
+                findHeadWordMatches(p1, false);
 
 				// Need to get all inputAnns that are within maxNominalSentenceDistance from antecedent
                 Annotation currSentence = currSentenceAS.iterator().next();
@@ -567,12 +2119,18 @@ public class BaselineCoreference extends AbstractLanguageAnalyser implements Pro
                 Collections.sort(anaphorList, new OffsetComparator());
         
         		inputAnns.remove(curr);     // remove current iteration from the list so we don't check it again
+                int numCandidates = 0;
 
                 // main body for lower iterator
                 for (Iterator<Annotation> itr = anaphorList.iterator(); itr.hasNext();) {
                 	if (isInterrupted() ) {
                     	throw new ExecutionException("Execution of coreference was interrupted.");
                 	}
+                    // the exclusion, sentence distance and definite descriptor queries cost time before matchPair is reached
+                    checkBudget();
+                    if (budgetExhausted) {
+                        break;
+                    }
                     Annotation ann = itr.next();
                     
                     matchedPair = false;
@@ -590,145 +2148,28 @@ public class BaselineCoreference extends AbstractLanguageAnalyser implements Pro
 
                     // Don't process this anaphor if it occurs within a defined exclusion zone
                     // or if it is outside the maxNominalSentenceDistance or anaphor is sortal and is outside maxSortalSentenceDistance
-                    if (isInExclusionRegion(inputAS, annStart, annEnd) || 
-                       (maxNominalSentenceDistance > -1 && maxNominalSentenceDistance < sentenceDistance) ||
-                       (isDefiniteDescriptor && maxSortalSentenceDistance > -1 && maxSortalSentenceDistance < sentenceDistance)
-                       ) {
+                    RejectionReason skipReason = isInExclusionRegion(inputAS, annStart, annEnd) ?
+                            RejectionReason.ExclusionRegion : getDistanceRejection(isDefiniteDescriptor, sentenceDistance);
+                    if (skipReason != RejectionReason.None) {
+                        traceRejection(curr.getId(), ann.getId(), skipReason);
                        	continue;
                     }
 
-                    FeatureMap p2Feats = ann.getFeatures();
-                    // get essential features that must match between p1 and p2
-                    List p2matchingFeats = new ArrayList();
-                    populateFeatureList(p2Feats, p2matchingFeats, matchingFeats);
-                    
-                    // get general features that should match between p1 and p2
-                    List p2ComparisonFeatures = new ArrayList();
-                    populateFeatureList(p2Feats, p2ComparisonFeatures, comparisonFeats);
-
-                    String p2String = "";
-                    if (contentFeature != null && !contentFeature.isEmpty()) {
-                        Object feat = p2Feats.get(contentFeature);
-                        if (feat != null ) {
-                            p2String = feat.toString().trim();
-                        }
-                    }
-                    if ( p2String.isEmpty() ) {
-                        p2String = docContent.substring(annStart.intValue(), annEnd.intValue()).trim();
+                    if (!isUnderCandidateLimit(numCandidates++)) {
+                        traceRejection(curr.getId(), ann.getId(), RejectionReason.CandidateLimit);
+                        break;
                     }
+
+                    MentionFeatures p2 = getAnaphorFeatures(ann, docContent);
+                    findHeadWordMatches(p2, isDefiniteDescriptor);
 					
-					// System.out.print(" against " + ann.getId() + ": " + p2String + "\n");
-					
-                    Integer p2BackRefId = (Integer) p2Feats.get(backrefIdFeature);		// get link back to existing coreferring Mention - if it's there, we don't want to link again
-
-                    // Get the last word of the string, we'll add this to the bpoc to see if we have a match
-                    String p2LastWord = getLastWord(p2String);
-
-                    // For simple lists of primitives, we could just do p1matchingFeats.equals(p2matchingFeats), but we might have more complex list item types
-                    int numEssentialFeatureMatches = matchFeatureListIntersection(p1matchingFeats, p2matchingFeats);
-                    int numFeatureMatches = matchFeatureListIntersection(p1ComparisonFeatures, p2ComparisonFeatures);
-                    int nummatchingFeats = p1matchingFeats.size();
-                    int numComparisonFeatures = p1ComparisonFeatures.size();
-
-                    // fraction of comparison features that match over all comparison features
-                    double featureMatchRatio = (numComparisonFeatures == 0) ? 1.0 : ((double)numFeatureMatches) / numComparisonFeatures;
-                    double compareScore = 0.0;
-                    // Check that essential features match and that p1 & p2 aren't already coreferenced nor do they appear in an exclude zone
-                    if (numEssentialFeatureMatches == nummatchingFeats &&
-                            featureMatchRatio >= featureMatchThreshold && 
-                            p1CorefId == null && p2BackRefId == null ) {
-                       
-                        // First test - do strings match exactly
-                        if (!matchedPair && p1String.length() >= shortestWord && p2String.length() >= shortestWord && p1String.equalsIgnoreCase(p2String)) {
-                            matchedPair = true;
-                            compareScore = 1.0;
-                        } else {
-                            // Filter through the sieve
-                            if (!matchedPair && isDefiniteDescriptor) {
-                                // definite descriptor anaphors headword can be matched against antecedent headword, e.g. 'left basilar atelectasis' with 'the atelectasis'
-                                if (p1LastWord.equalsIgnoreCase(p2LastWord)) {
-                                    matchedPair = true;
-                                    compareScore = 0.8;
-                                }
-                                // Check for sortal anaphor match against antecedent type or feature value
-                                else if(annTypeToSortal) {         // e.g. '{Location}garden square' to '{Location}that location'
-                                    if (currType.equalsIgnoreCase(p2LastWord) ) {
-                                        matchedPair = true;
-                                        compareScore = 0.75;
-                                    }
-                                }
-                                if (!matchedPair) { // e.g. type=city and 'the city'
-                                    if (matchValueInFeatureMap(p1Feats, annFeatsToSortal, p2LastWord)) {
-                                        matchedPair = true;
-                                        compareScore = 0.75;
-                                    } else {    // we've got feature matches but nothing else, but as this is a sortal reference and close to the antecedent, raise a tentative match
-                                        if (!currType.equalsIgnoreCase("Person") && (numComparisonFeatures > 0 || nummatchingFeats > 0)) {
-                                            matchedPair = true;
-                                            compareScore = 0.5;
-                                        }
-                                    }
-                                }
-                            }
-                            if (!matchedPair) {
-                                if (matchValueInFeatureMap(p1Feats, annFeatsToContent, p2LastWord) ||
-                                        matchValueInFeatureMap(p2Feats, annFeatsToContent, p1LastWord)
-                                        ) {
-                                    matchedPair = true;
-                                    // System.out.println("matched " + p2LastWord + " with " + p2LastWord);
-                                    compareScore = 0.65;
-                                }
-                            }
-                            // Headword only match - can be risky, but useful for Person matches, e.g. John Smith vs Mr Smith
-                            if (!matchedPair && !isDefiniteDescriptor && getNumWords(p1String) > 1 && p1LastWord.equalsIgnoreCase(p2LastWord) && currType.equalsIgnoreCase("Person")) {
-                                matchedPair = true;
-                                compareScore = 0.70;
-                            }
-                            // Approximate string match
-                            if (!matchedPair && p1String.length() >= shortestWord && p2String.length() >= shortestWord) {
-                                // Calculate string similarity if string lengths are longer than shortestWord
-                                StringWrapper sw1 = metrics[0].prepare(p1String);
-                                StringWrapper sw2 = metrics[0].prepare(p2String);
-                                double metric1Score = metrics[0].score(sw1, sw2);
-                                double metric2Score = 0.0;
-                                compareScore = metric1Score;
-                                if (metrics.length == 2) {
-                                    metric2Score = metrics[1].score(sw1, sw2);
-                                    if (similarityComparison == MeasureCompare.mean) {
-                                        compareScore = (metric1Score + metric2Score) / 2;
-                                    } else if (similarityComparison == MeasureCompare.max) {
-                                        compareScore = Math.max(metric1Score, metric2Score);
-                                    } else {
-                                        compareScore = Math.min(metric1Score, metric2Score);
-                                    }
-                                } else {
-                                    compareScore = metric1Score;
-                                }
-                                if (compareScore >= threshold) {
-                                    matchedPair = true;
-                                }
-                            } // end if
-                        } // end if
-                    } // end if
+					// System.out.print(" against " + ann.getId() + ": " + p2.string + "\n");
 
+                    Double compareScore = matchPair(p1, p2, isDefiniteDescriptor, metrics, threshold);
+                    matchedPair = (compareScore != null);
 
                     if (matchedPair) {
-                    	// mark the coref
-                        p1Feats.put("score", compareScore);
-                        p1Feats.put(corefIdFeature, ann.getId());
-                        p1Feats.put(corefTextFeature, p2String);		// coreferent text
-                        // mark the backref
-                        p2Feats.put(backrefIdFeature, currId);
-                        p2Feats.put(backrefTextFeature, p1String);
-
-                        // Propagate the featsClone from antecedent to the anaphor
-                        if (featsClone != null) {
-                            for (String feat : featsClone) {
-                                Object featVal = p1Feats.get(feat);
-                                if (featVal != null) {
-                                    p2Feats.put(feat, featVal);
-                                }
-                            }
-                        }
+                        markCoreference(p1, p2, compareScore);
                         curr = ann;
                         itr.remove();
                         break;
@@ -744,13 +2185,120 @@ public class BaselineCoreference extends AbstractLanguageAnalyser implements Pro
                 }
                 // end main body
             } // end while over upper iterator
+            publishChainsComplete(typeIndex);
         } // end for
 
+        long loopEndTime = System.nanoTime();
+        long mainLoopTime = loopEndTime - setupEndTime - featureWritingTime - linkPublishingTime;
+
+        long crossDocumentTime = -1;
+        if (crossDocumentLinking) {
+            checkBudget();
+            if (budgetExhausted) {
+                shortenedStages.add(crossDocumentStage);
+            } else {
+                fireStatusChanged("Linking entities of " + document.getName());
+                try {
+                    if (!getEntityLinker().link(inputAS, inputFilters, docContent, metrics, threshold)) {
+                        shortenedStages.add(crossDocumentStage);
+                    }
+                } catch (IOException ioe) {
+                    throw new ExecutionException(ioe);
+                }
+                crossDocumentTime = System.nanoTime() - loopEndTime;
+            }
+        }
+
+        // Record which stages were cut short so that downstream consumers know the chains may be incomplete
+        if (shortenedStages.isEmpty()) {
+            document.getFeatures().remove(shortenedStagesFeature);
+        } else {
+            document.getFeatures().put(shortenedStagesFeature, new ArrayList<String>(shortenedStages));
+        }
+        // Fingerprint the state the document is left in, unless its chains may be incomplete
+        long fingerprintTime = -1;
+        if (skipUnchangedDocuments) {
+            long fingerprintStartTime = System.nanoTime();
+            if (shortenedStages.isEmpty()) {
+                document.getFeatures().put(fingerprintFeature, Long.toHexString(getDocumentFingerprint(inputAS, docContent)));
+            } else {
+                document.getFeatures().remove(fingerprintFeature);
+            }
+            fingerprintTime = System.nanoTime() - fingerprintStartTime;
+        }
+        long chainExportTime = -1;
+        if (chainFileURL != null) {
+            long exportStartTime = System.nanoTime();
+            exportChains(inputAS, docContent);
+            chainExportTime = System.nanoTime() - exportStartTime;
+        }
+
+        if (collectStatistics) {
+            recordStatistics(setupEndTime - documentStartTime, mainLoopTime, crossDocumentTime, fingerprintTime, chainExportTime, allocatedBytesStart);
+        }
+
         fireProcessFinished();
     } // end execute()
 
 
     
+    @Override
+    public void cleanup() {
+        super.cleanup();
+        if (statistics != null) {
+            statistics.close();
+            statistics = null;
+        }
+        if (entityLinker != null) {
+            try {
+                entityLinker.close();
+            } catch (IOException ioe) {
+                gate.util.Err.println("Unable to save entity index to " + entityIndexURL + ": " + ioe.getMessage());
+            }
+            entityLinker = null;
+        }
+        if (trace != null) {
+            trace.close();
+            trace = null;
+        }
+        if (linkPublisher != null) {
+            linkPublisher.close();
+        }
+        if (slidingWindow != null) {
+            slidingWindow.close();
+            slidingWindow = null;
+        }
+        if (chainExporter != null) {
+            try {
+                chainExporter.close();
+            } catch (IOException ioe) {
+                gate.util.Err.println("Unable to close chain file " + chainFileURL + ": " + ioe.getMessage());
+            }
+            chainExporter = null;
+        }
+    }
+
+
+    /**
+     * Receive each link as soon as it is made, rather than reading the coreference features after execute()
+     * @param listener      the listener
+     */
+    public void addCoreferenceListener(CoreferenceListener listener) {
+        synchronized (this) {
+            if (linkPublisher == null) {
+                linkPublisher = new LinkPublisher();
+            }
+        }
+        linkPublisher.addListener(listener);
+    }
+
+    public void removeCoreferenceListener(CoreferenceListener listener) {
+        if (linkPublisher != null) {
+            linkPublisher.removeListener(listener);
+        }
+    }
+
+
     @Override
     public void progressChanged(int i) {
         fireProgressChanged(i);
@@ -972,6 +2520,236 @@ public class BaselineCoreference extends AbstractLanguageAnalyser implements Pro
         return similarityComparison;
     }
 
+    @RunTime
+    @CreoleParameter(defaultValue = "Iterative",
+    comment = "Algorithm used to build coreference chains")
+    public void setChainingAlgorithm(ChainingAlgorithm chainingAlgorithm) {
+        this.chainingAlgorithm = chainingAlgorithm;
+    }
+
+    public ChainingAlgorithm getChainingAlgorithm() {
+        return chainingAlgorithm;
+    }
+
+    @Optional
+    @RunTime
+    @CreoleParameter(comment = "If set, record the candidate pairs of each document to this file for ThresholdSweep")
+    public void setPairScoreFileURL(URL pairScoreFileURL) {
+        this.pairScoreFileURL = pairScoreFileURL;
+    }
+
+    public URL getPairScoreFileURL() {
+        return pairScoreFileURL;
+    }
+
+    @RunTime
+    @CreoleParameter(defaultValue = "Heap",
+    comment = "Where the SlidingWindow algorithm holds the mentions of each type: Heap, Direct or MappedFile")
+    public void setMentionStorage(MentionStorage mentionStorage) {
+        this.mentionStorage = mentionStorage;
+    }
+
+    public MentionStorage getMentionStorage() {
+        return mentionStorage;
+    }
+
+    @RunTime
+    @CreoleParameter(defaultValue = "-1",
+    comment = "Latency budget for each document in milliseconds, after which the expensive sieve stages are skipped. -1 for no limit")
+    public void setMaxDocumentTime(Integer maxDocumentTime) {
+        this.maxDocumentTime = maxDocumentTime;
+    }
+
+    public Integer getMaxDocumentTime() {
+        return maxDocumentTime;
+    }
+
+    @RunTime
+    @CreoleParameter(defaultValue = "-1",
+    comment = "Maximum number of candidate anaphors compared with each antecedent. -1 for no limit")
+    public void setMaxCandidatesPerAntecedent(Integer maxCandidatesPerAntecedent) {
+        this.maxCandidatesPerAntecedent = maxCandidatesPerAntecedent;
+    }
+
+    public Integer getMaxCandidatesPerAntecedent() {
+        return maxCandidatesPerAntecedent;
+    }
+
+    @Optional
+    @CreoleParameter(comment = "If set, initialise the PR from a configuration snapshot written by writeConfigurationSnapshot")
+    public void setConfigurationSnapshotURL(URL configurationSnapshotURL) {
+        this.configurationSnapshotURL = configurationSnapshotURL;
+    }
+
+    public URL getConfigurationSnapshotURL() {
+        return configurationSnapshotURL;
+    }
+
+    @RunTime
+    @CreoleParameter(defaultValue = "false",
+    comment = "Record per-document latency and allocation histograms, exposed through JMX")
+    public void setCollectStatistics(Boolean collectStatistics) {
+        this.collectStatistics = collectStatistics;
+    }
+
+    public Boolean getCollectStatistics() {
+        return collectStatistics;
+    }
+
+    @Optional
+    @RunTime
+    @CreoleParameter(comment = "If set with collectStatistics, append histogram percentiles to this file every statisticsInterval seconds")
+    public void setStatisticsFileURL(URL statisticsFileURL) {
+        this.statisticsFileURL = statisticsFileURL;
+    }
+
+    public URL getStatisticsFileURL() {
+        return statisticsFileURL;
+    }
+
+    @RunTime
+    @CreoleParameter(defaultValue = "60",
+    comment = "Interval in seconds between appends to statisticsFileURL")
+    public void setStatisticsInterval(Integer statisticsInterval) {
+        this.statisticsInterval = statisticsInterval;
+    }
+
+    public Integer getStatisticsInterval() {
+        return statisticsInterval;
+    }
+
+    @RunTime
+    @CreoleParameter(defaultValue = "false",
+    comment = "Link chain heads to the entities of the corpus after in-document chaining")
+    public void setCrossDocumentLinking(Boolean crossDocumentLinking) {
+        this.crossDocumentLinking = crossDocumentLinking;
+    }
+
+    public Boolean getCrossDocumentLinking() {
+        return crossDocumentLinking;
+    }
+
+    @Optional
+    @RunTime
+    @CreoleParameter(comment = "Directory in which the cross-document entity index is saved, or leave empty to hold it in memory only")
+    public void setEntityIndexURL(URL entityIndexURL) {
+        this.entityIndexURL = entityIndexURL;
+    }
+
+    public URL getEntityIndexURL() {
+        return entityIndexURL;
+    }
+
+    @RunTime
+    @CreoleParameter(defaultValue = "entityId",
+    comment = "Feature that will hold the cross-document entity id")
+    public void setEntityIdFeature(String entityIdFeature) {
+        this.entityIdFeature = entityIdFeature;
+    }
+
+    public String getEntityIdFeature() {
+        return entityIdFeature;
+    }
+
+    @RunTime
+    @CreoleParameter(defaultValue = "1000000",
+    comment = "Maximum number of chain heads the entity index holds in memory before writing blocks to disk, -1 for no limit")
+    public void setMaxIndexedHeads(Integer maxIndexedHeads) {
+        this.maxIndexedHeads = maxIndexedHeads;
+    }
+
+    public Integer getMaxIndexedHeads() {
+        return maxIndexedHeads;
+    }
+
+    @RunTime
+    @CreoleParameter(defaultValue = "false",
+    comment = "Skip documents whose mentions, features and parameters are unchanged since they were last processed")
+    public void setSkipUnchangedDocuments(Boolean skipUnchangedDocuments) {
+        this.skipUnchangedDocuments = skipUnchangedDocuments;
+    }
+
+    public Boolean getSkipUnchangedDocuments() {
+        return skipUnchangedDocuments;
+    }
+
+    @RunTime
+    @CreoleParameter(defaultValue = "-1",
+    comment = "Number of sentences per chunk when similarity scores are precomputed in parallel, -1 to score pairs sequentially")
+    public void setParallelChunkSize(Integer parallelChunkSize) {
+        this.parallelChunkSize = parallelChunkSize;
+    }
+
+    public Integer getParallelChunkSize() {
+        return parallelChunkSize;
+    }
+
+    @Optional
+    @RunTime
+    @CreoleParameter(comment = "If set, the sieve path, rejection reason and scores of each candidate pair of sampled documents are appended to this file")
+    public void setTraceFileURL(URL traceFileURL) {
+        this.traceFileURL = traceFileURL;
+    }
+
+    public URL getTraceFileURL() {
+        return traceFileURL;
+    }
+
+    @RunTime
+    @CreoleParameter(defaultValue = "1.0",
+    comment = "Fraction of documents whose decisions are traced to traceFileURL")
+    public void setTraceSampleRate(Double traceSampleRate) {
+        this.traceSampleRate = traceSampleRate;
+    }
+
+    public Double getTraceSampleRate() {
+        return traceSampleRate;
+    }
+
+    @Optional
+    @RunTime
+    @CreoleParameter(comment = "If set, trace only the documents with these names, ignoring traceSampleRate")
+    public void setTraceDocuments(ArrayList<String> traceDocuments) {
+        this.traceDocuments = traceDocuments;
+    }
+
+    public ArrayList<String> getTraceDocuments() {
+        return traceDocuments;
+    }
+
+    @RunTime
+    @CreoleParameter(defaultValue = "65536",
+    comment = "Number of traced decisions held in memory until they are written; decisions beyond this are dropped and counted")
+    public void setTraceBufferSize(Integer traceBufferSize) {
+        this.traceBufferSize = traceBufferSize;
+    }
+
+    public Integer getTraceBufferSize() {
+        return traceBufferSize;
+    }
+
+    @RunTime
+    @CreoleParameter(defaultValue = "1024",
+    comment = "Number of links that may be waiting for CoreferenceListeners before the PR waits for them to catch up")
+    public void setLinkBufferSize(Integer linkBufferSize) {
+        this.linkBufferSize = linkBufferSize;
+    }
+
+    public Integer getLinkBufferSize() {
+        return linkBufferSize;
+    }
+
+    @Optional
+    @RunTime
+    @CreoleParameter(comment = "If set, the mentions and coreference chains of each document are appended to this file in compact binary form")
+    public void setChainFileURL(URL chainFileURL) {
+        this.chainFileURL = chainFileURL;
+    }
+
+    public URL getChainFileURL() {
+        return chainFileURL;
+    }
+
     @RunTime
     @CreoleParameter(defaultValue = "0.90",
     comment = "String similarity threshold score")
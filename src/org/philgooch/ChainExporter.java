@@ -0,0 +1,158 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.philgooch;
+
+import gate.Annotation;
+import gate.AnnotationSet;
+import gate.FeatureMap;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Appends the mentions of each document and their chains, as recorded in the coreference features, to a ChainFile
+ *
+ * @author philipgooch
+ */
+class ChainExporter implements Closeable {
+
+    private final ChainFile.Writer writer;
+
+    /**
+     *
+     * @param file      chain file, appended to if it exists
+     * @throws IOException
+     */
+    ChainExporter(File file) throws IOException {
+        writer = new ChainFile.Writer(file);
+    }
+
+
+    /**
+     * Anaphors that are not themselves selected by inputFilters are included with their chains
+     * @param documentName      document name
+     * @param inputAS           input annotation set
+     * @param inputFilters      filters selecting the mentions of each of inputASTypes
+     * @param corefIdFeature    feature holding the id of a mention's anaphor
+     * @param backrefIdFeature  feature holding the id of a mention's antecedent
+     * @param docContent        document content
+     * @throws IOException
+     */
+    void export(String documentName, AnnotationSet inputAS, List<AnnotationFilter> inputFilters,
+            String corefIdFeature, String backrefIdFeature, String docContent) throws IOException {
+        List<Annotation> mentions = getMentions(inputAS, inputFilters, corefIdFeature, backrefIdFeature);
+        int numMentions = mentions.size();
+        Map<Integer, Integer> mentionIndex = new HashMap<Integer, Integer>();
+        int[] ids = new int[numMentions];
+        String[] types = new String[numMentions];
+        long[] starts = new long[numMentions];
+        long[] ends = new long[numMentions];
+        String[] texts = new String[numMentions];
+        for (int i = 0; i < numMentions; i++) {
+            Annotation ann = mentions.get(i);
+            ids[i] = ann.getId();
+            types[i] = ann.getType();
+            starts[i] = ann.getStartNode().getOffset();
+            ends[i] = ann.getEndNode().getOffset();
+            // the mention's own text, as contentFeature may hold its antecedent's once it is linked
+            texts[i] = docContent.substring((int)starts[i], (int)ends[i]);
+            mentionIndex.put(ids[i], i);
+        }
+        // follow the link from each antecedent to its anaphor, which may sort before it if the two overlap
+        int[] antecedents = new int[numMentions];
+        Arrays.fill(antecedents, -1);
+        float[] scores = new float[numMentions];
+        Arrays.fill(scores, Float.NaN);
+        boolean[] isLinked = new boolean[numMentions];
+        for (int i = 0; i < numMentions; i++) {
+            FeatureMap feats = mentions.get(i).getFeatures();
+            Object corefId = feats.get(corefIdFeature);
+            Integer anaphor = null;
+            if (corefId != null) {
+                try {
+                    anaphor = mentionIndex.get(Integer.valueOf(corefId.toString()));
+                } catch (NumberFormatException nfe) {
+                    anaphor = null;
+                }
+            }
+            if (anaphor == null || anaphor == i || antecedents[anaphor] >= 0) {
+                continue;
+            }
+            antecedents[anaphor] = i;
+            isLinked[i] = true;
+            isLinked[anaphor] = true;
+            Object score = feats.get("score");
+            scores[anaphor] = (score instanceof Number) ? ((Number)score).floatValue() : Float.NaN;
+        }
+        // number the chains in the order of their first mention
+        int[] chains = new int[numMentions];
+        int[] headChains = new int[numMentions];
+        int numChains = 0;
+        for (int i = 0; i < numMentions; i++) {
+            if (!isLinked[i]) {
+                continue;
+            }
+            int head = i;
+            for (int steps = 0; antecedents[head] >= 0 && steps < numMentions; steps++) {
+                head = antecedents[head];
+            }
+            if (headChains[head] == 0) {
+                headChains[head] = ++numChains;
+            }
+            chains[i] = headChains[head];
+        }
+        writer.append(new ChainFile.DocumentChains(documentName, ids, types, starts, ends, texts, chains, antecedents, scores, numChains));
+    }
+
+
+    /**
+     *
+     * @return      the mentions of each of inputFilters and every linked annotation of the same types, sorted by offset
+     */
+    private static List<Annotation> getMentions(AnnotationSet inputAS, List<AnnotationFilter> inputFilters,
+            String corefIdFeature, String backrefIdFeature) {
+        List<Annotation> mentions = new ArrayList<Annotation>();
+        Set<Integer> mentionIds = new HashSet<Integer>();
+        Set<String> linkedTypes = new HashSet<String>();
+        for (AnnotationFilter inputFilter : inputFilters) {
+            AnnotationSet mentionAS = inputFilter.apply(inputAS);
+            if (mentionAS.isEmpty()) {
+                continue;
+            }
+            for (Annotation ann : mentionAS) {
+                if (mentionIds.add(ann.getId())) {
+                    mentions.add(ann);
+                }
+            }
+            // anaphors may be any annotation of the same type
+            String annType = mentionAS.iterator().next().getType();
+            if (linkedTypes.add(annType)) {
+                for (Annotation ann : inputAS.get(annType)) {
+                    FeatureMap feats = ann.getFeatures();
+                    if ((feats.containsKey(corefIdFeature) || feats.containsKey(backrefIdFeature)) && mentionIds.add(ann.getId())) {
+                        mentions.add(ann);
+                    }
+                }
+            }
+        }
+        Collections.sort(mentions, new Comparator<Annotation>() {
+            @Override
+            public int compare(Annotation a1, Annotation a2) {
+                int result = a1.getStartNode().getOffset().compareTo(a2.getStartNode().getOffset());
+                if (result == 0) {
+                    result = a1.getEndNode().getOffset().compareTo(a2.getEndNode().getOffset());
+                }
+                return (result != 0) ? result : a1.getId().compareTo(a2.getId());
+            }
+        });
+        return mentions;
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,438 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.philgooch;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Compact binary stand-off file of the mentions and coreference chains of a corpus, as written by
+ * BaselineCoreference when chainFileURL is set. Each document is appended as a self-contained block of MAGIC,
+ * VERSION and the block length (ints), followed by
+ * the string table: number of strings, then each string as its UTF-8 length and bytes;
+ * the document name as an index into the string table;
+ * the number of mentions, which are sorted by offset, then one column per value: annotation id (zigzag encoded
+ * difference from the previous id), type and covered text (string table indexes), start (difference from the previous
+ * start), length, chain id (0 if the mention is in no chain) and antecedent (1 + the antecedent's index, or 0 if
+ * the mention has none);
+ * the number of chains, then the score of each mention that has an antecedent, as a float.
+ * All integers in a block are unsigned varints. Version 1 blocks have no antecedent column, and the antecedent of a
+ * mention is taken to be the mention before it in the same chain.
+ *
+ * A ChainFile reads a file by memory-mapping it a window at a time.
+ *
+ * Usage: ChainFile chainFile
+ * prints a chain file as tab separated text.
+ *
+ * @author philipgooch
+ */
+public class ChainFile implements Closeable {
+
+    static final int MAGIC = 0x42434348;        // BCCH
+    static final int VERSION = 2;
+
+    private static final int HEADER_SIZE = 12;
+    private static final long WINDOW_SIZE = 64L << 20;     // bytes mapped at a time
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Mentions and chains of one document
+     */
+    public static class DocumentChains {
+        private final String documentName;
+        private final int[] ids;
+        private final String[] types;
+        private final long[] starts;
+        private final long[] ends;
+        private final String[] texts;
+        private final int[] chains;
+        private final float[] scores;     // NaN if the mention has no antecedent
+        private final int numChains;
+        private final int[] antecedents;
+
+        /**
+         * Mentions must be sorted by start offset
+         */
+        DocumentChains(String documentName, int[] ids, String[] types, long[] starts, long[] ends, String[] texts,
+                int[] chains, int[] antecedents, float[] scores, int numChains) {
+            this.documentName = documentName;
+            this.ids = ids;
+            this.types = types;
+            this.starts = starts;
+            this.ends = ends;
+            this.texts = texts;
+            this.chains = chains;
+            this.antecedents = antecedents;
+            this.scores = scores;
+            this.numChains = numChains;
+        }
+
+        public String getDocumentName() {
+            return documentName;
+        }
+
+        public int getNumMentions() {
+            return ids.length;
+        }
+
+        public int getNumChains() {
+            return numChains;
+        }
+
+        public int getId(int mention) {
+            return ids[mention];
+        }
+
+        public String getType(int mention) {
+            return types[mention];
+        }
+
+        public long getStart(int mention) {
+            return starts[mention];
+        }
+
+        public long getEnd(int mention) {
+            return ends[mention];
+        }
+
+        public String getText(int mention) {
+            return texts[mention];
+        }
+
+        /**
+         *
+         * @param mention   mention index
+         * @return          chain id, from 1 to getNumChains(), or 0 if the mention is in no chain
+         */
+        public int getChain(int mention) {
+            return chains[mention];
+        }
+
+        /**
+         *
+         * @param mention   mention index
+         * @return          score of the link from the mention's antecedent, or NaN if it has none
+         */
+        public float getScore(int mention) {
+            return scores[mention];
+        }
+
+        /**
+         *
+         * @param mention   mention index
+         * @return          index of the mention's antecedent, or -1 if it heads its chain or is in no chain
+         */
+        public int getAntecedent(int mention) {
+            return antecedents[mention];
+        }
+    }
+
+    /**
+     * Antecedents of a version 1 block, in which each anaphor follows its antecedent
+     */
+    private static int[] getAntecedents(int[] chains, int numChains) {
+        int[] antecedents = new int[chains.length];
+        int[] lastMention = new int[numChains + 1];
+        Arrays.fill(lastMention, -1);
+        for (int i = 0; i < chains.length; i++) {
+            int chain = chains[i];
+            antecedents[i] = (chain == 0) ? -1 : lastMention[chain];
+            lastMention[chain] = i;
+        }
+        return antecedents;
+    }
+
+
+    /**
+     * Appends document blocks to a chain file. Several writers in the same JVM, or in several processes, may append
+     * to the same file.
+     */
+    static class Writer implements Closeable {
+        private final FileChannel channel;
+        private ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+
+        Writer(File file) throws IOException {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+
+        /**
+         * Append a document block
+         * @param chains        mentions and chains of the document
+         * @throws IOException
+         */
+        void append(DocumentChains chains) throws IOException {
+            buffer.clear();
+            buffer.position(HEADER_SIZE);
+            encode(chains);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, buffer.position() - HEADER_SIZE);
+            buffer.flip();
+
+            // the lock keeps blocks whole when other processes append to the same file, and the monitor does
+            // the same for other PRs in this JVM, which would otherwise fail to take an overlapping lock
+            synchronized (ChainFile.class) {
+                FileLock lock = channel.lock();
+                try {
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+
+        private void encode(DocumentChains chains) {
+            int numMentions = chains.getNumMentions();
+            PairScoreFile.StringTable strings = new PairScoreFile.StringTable();
+            int documentName = strings.add(chains.documentName == null ? "" : chains.documentName);
+            int[] types = new int[numMentions];
+            int[] texts = new int[numMentions];
+            for (int i = 0; i < numMentions; i++) {
+                types[i] = strings.add(chains.types[i]);
+                texts[i] = strings.add(chains.texts[i]);
+            }
+
+            String[] table = strings.toArray();
+            putVarint(table.length);
+            for (String str : table) {
+                byte[] bytes = str.getBytes(UTF8);
+                putVarint(bytes.length);
+                ensureCapacity(bytes.length);
+                buffer.put(bytes);
+            }
+            putVarint(documentName);
+
+            putVarint(numMentions);
+            int lastId = 0;
+            for (int i = 0; i < numMentions; i++) {
+                int delta = chains.ids[i] - lastId;
+                putVarint(((delta << 1) ^ (delta >> 31)) & 0xFFFFFFFFL);
+                lastId = chains.ids[i];
+            }
+            for (int i = 0; i < numMentions; i++) {
+                putVarint(types[i]);
+            }
+            for (int i = 0; i < numMentions; i++) {
+                putVarint(texts[i]);
+            }
+            long lastStart = 0;
+            for (int i = 0; i < numMentions; i++) {
+                putVarint(chains.starts[i] - lastStart);
+                lastStart = chains.starts[i];
+            }
+            for (int i = 0; i < numMentions; i++) {
+                putVarint(chains.ends[i] - chains.starts[i]);
+            }
+            for (int i = 0; i < numMentions; i++) {
+                putVarint(chains.chains[i]);
+            }
+            for (int i = 0; i < numMentions; i++) {
+                putVarint(chains.antecedents[i] + 1);
+            }
+
+            putVarint(chains.numChains);
+            for (int i = 0; i < numMentions; i++) {
+                if (chains.antecedents[i] >= 0) {
+                    ensureCapacity(4);
+                    buffer.putFloat(chains.scores[i]);
+                }
+            }
+        }
+
+        private void putVarint(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer.put((byte)((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte)value);
+        }
+
+        private void ensureCapacity(int length) {
+            if (buffer.remaining() < length) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + length));
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+
+    private final FileChannel channel;
+    private final long size;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private long position;
+
+
+    /**
+     * Open a chain file for reading
+     * @param file      chain file
+     * @throws IOException
+     */
+    public ChainFile(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        size = channel.size();
+    }
+
+
+    /**
+     * Read the next document block
+     * @return          the mentions and chains of the document, or null at the end of the file
+     * @throws IOException
+     */
+    public DocumentChains next() throws IOException {
+        if (position >= size) {
+            return null;
+        }
+        if (position + HEADER_SIZE > size) {
+            throw new EOFException("Truncated chain file");
+        }
+        ByteBuffer header = map(position, HEADER_SIZE);
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Not a chain file");
+        }
+        int version = header.getInt();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported chain file version " + version);
+        }
+        int length = header.getInt();
+        if (position + HEADER_SIZE + length > size) {
+            throw new EOFException("Truncated chain file");
+        }
+        ByteBuffer block = map(position + HEADER_SIZE, length);
+        position += HEADER_SIZE + length;
+        return decode(block, version);
+    }
+
+    /**
+     * A buffer over part of the file, mapping a new window if the current one does not hold it
+     */
+    private ByteBuffer map(long start, int length) throws IOException {
+        if (window == null || start < windowStart || start + length > windowStart + window.capacity()) {
+            windowStart = start;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(size - start, Math.max(WINDOW_SIZE, length)));
+        }
+        ByteBuffer buffer = window.duplicate();
+        buffer.position((int)(start - windowStart));
+        buffer.limit((int)(start - windowStart) + length);
+        return buffer.slice();
+    }
+
+    private static DocumentChains decode(ByteBuffer in, int version) {
+        String[] strings = new String[(int)getVarint(in)];
+        for (int i = 0; i < strings.length; i++) {
+            byte[] bytes = new byte[(int)getVarint(in)];
+            in.get(bytes);
+            strings[i] = new String(bytes, UTF8);
+        }
+        String documentName = strings[(int)getVarint(in)];
+
+        int numMentions = (int)getVarint(in);
+        int[] ids = new int[numMentions];
+        int lastId = 0;
+        for (int i = 0; i < numMentions; i++) {
+            int zigzag = (int)getVarint(in);
+            lastId += (zigzag >>> 1) ^ -(zigzag & 1);
+            ids[i] = lastId;
+        }
+        String[] types = new String[numMentions];
+        for (int i = 0; i < numMentions; i++) {
+            types[i] = strings[(int)getVarint(in)];
+        }
+        String[] texts = new String[numMentions];
+        for (int i = 0; i < numMentions; i++) {
+            texts[i] = strings[(int)getVarint(in)];
+        }
+        long[] starts = new long[numMentions];
+        long lastStart = 0;
+        for (int i = 0; i < numMentions; i++) {
+            lastStart += getVarint(in);
+            starts[i] = lastStart;
+        }
+        long[] ends = new long[numMentions];
+        for (int i = 0; i < numMentions; i++) {
+            ends[i] = starts[i] + getVarint(in);
+        }
+        int[] chains = new int[numMentions];
+        for (int i = 0; i < numMentions; i++) {
+            chains[i] = (int)getVarint(in);
+        }
+        int[] antecedents = null;
+        if (version >= 2) {
+            antecedents = new int[numMentions];
+            for (int i = 0; i < numMentions; i++) {
+                antecedents[i] = (int)getVarint(in) - 1;
+            }
+        }
+
+        int numChains = (int)getVarint(in);
+        if (antecedents == null) {
+            antecedents = getAntecedents(chains, numChains);
+        }
+        float[] scores = new float[numMentions];
+        for (int i = 0; i < numMentions; i++) {
+            scores[i] = (antecedents[i] >= 0) ? in.getFloat() : Float.NaN;
+        }
+        return new DocumentChains(documentName, ids, types, starts, ends, texts, chains, antecedents, scores, numChains);
+    }
+
+    private static long getVarint(ByteBuffer in) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (long)(b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: ChainFile chainFile");
+            System.exit(1);
+        }
+        ChainFile chainFile = new ChainFile(new File(args[0]));
+        try {
+            System.out.println("document\tid\ttype\tstart\tend\tchain\tantecedent\tscore\ttext");
+            DocumentChains document;
+            while ((document = chainFile.next()) != null) {
+                for (int i = 0; i < document.getNumMentions(); i++) {
+                    int antecedent = document.getAntecedent(i);
+                    System.out.println(document.getDocumentName() + "\t" + document.getId(i) + "\t" + document.getType(i) + "\t" +
+                            document.getStart(i) + "\t" + document.getEnd(i) + "\t" + document.getChain(i) + "\t" +
+                            (antecedent < 0 ? "" : String.valueOf(document.getId(antecedent))) + "\t" +
+                            (antecedent < 0 ? "" : String.valueOf(document.getScore(i))) + "\t" + document.getText(i));
+                }
+            }
+        } finally {
+            chainFile.close();
+        }
+    }
+}
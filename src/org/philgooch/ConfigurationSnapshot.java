@@ -0,0 +1,101 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.philgooch;
+
+import java.io.*;
+import java.net.URL;
+import java.util.*;
+
+/**
+ * Serialised configuration of a BaselineCoreference PR: its parameter values together with the state compiled
+ * from them, i.e. the parsed inputASTypes and excludeIfWithin expressions and the string metric configuration,
+ * so that a new PR can be initialised from it without re-parsing or re-validating anything.
+ *
+ * @author philipgooch
+ */
+class ConfigurationSnapshot implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    final Map<String, Object> parameters = new LinkedHashMap<String, Object>();      // parameter name to value, URLs as strings
+    List<AnnotationFilter> inputFilters;
+    List<AnnotationFilter> excludeFilters;
+    String metricName;          // empty if no similarity measure
+
+
+    /**
+     * Write the snapshot to a file
+     * @param file          snapshot file
+     * @throws IOException
+     */
+    void write(File file) throws IOException {
+        ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeObject(this);
+        } finally {
+            out.close();
+        }
+    }
+
+
+    /**
+     * Read a snapshot
+     * @param url           snapshot location
+     * @return              the snapshot
+     * @throws IOException  if the snapshot can't be read, or holds a class that a snapshot can't contain
+     */
+    static ConfigurationSnapshot read(URL url) throws IOException {
+        ObjectInputStream in = new SnapshotInputStream(new BufferedInputStream(url.openStream()));
+        try {
+            return (ConfigurationSnapshot)in.readObject();
+        } catch (ClassNotFoundException cnfe) {
+            throw new IOException("Not a configuration snapshot: " + url);
+        } catch (ClassCastException cce) {
+            throw new IOException("Not a configuration snapshot: " + url);
+        } finally {
+            in.close();
+        }
+    }
+
+
+    /**
+     * Reads only the classes that writeConfigurationSnapshot writes, so that a snapshot URL can't be used to
+     * instantiate arbitrary serialisable classes on the classpath
+     */
+    private static class SnapshotInputStream extends ObjectInputStream {
+
+        private static final Set<String> allowedClasses = new HashSet<String>();
+        static {
+            for (Class<?> c : Arrays.<Class<?>>asList(ConfigurationSnapshot.class, AnnotationFilter.class,
+                    String.class, Boolean.class, Integer.class, Long.class, Double.class, Float.class, Number.class, Enum.class,
+                    ArrayList.class, HashMap.class, LinkedHashMap.class)) {
+                allowedClasses.add(c.getName());
+            }
+            // enumerated parameter types
+            for (Class<?> c : BaselineCoreference.class.getDeclaredClasses()) {
+                if (c.isEnum()) {
+                    allowedClasses.add(c.getName());
+                }
+            }
+        }
+
+        SnapshotInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            if (!allowedClasses.contains(desc.getName())) {
+                throw new InvalidClassException(desc.getName(), "not allowed in a configuration snapshot");
+            }
+            return super.resolveClass(desc);
+        }
+
+        @Override
+        protected Class<?> resolveProxyClass(String[] interfaces) throws IOException, ClassNotFoundException {
+            throw new InvalidClassException("proxy", "not allowed in a configuration snapshot");
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.philgooch;
+
+import gate.Document;
+
+/**
+ * An antecedent-anaphor link, as published to a CoreferenceListener
+ *
+ * @author philipgooch
+ */
+public class CoreferenceLink {
+
+    private final Document document;
+    private final String type;
+    private final int antecedentId;
+    private final long antecedentStart;
+    private final long antecedentEnd;
+    private final String antecedentText;
+    private final int anaphorId;
+    private final long anaphorStart;
+    private final long anaphorEnd;
+    private final String anaphorText;
+    private final double score;
+    private final BaselineCoreference.SieveStage stage;
+
+
+    CoreferenceLink(Document document, String type, int antecedentId, long antecedentStart, long antecedentEnd, String antecedentText,
+            int anaphorId, long anaphorStart, long anaphorEnd, String anaphorText, double score, BaselineCoreference.SieveStage stage) {
+        this.document = document;
+        this.type = type;
+        this.antecedentId = antecedentId;
+        this.antecedentStart = antecedentStart;
+        this.antecedentEnd = antecedentEnd;
+        this.antecedentText = antecedentText;
+        this.anaphorId = anaphorId;
+        this.anaphorStart = anaphorStart;
+        this.anaphorEnd = anaphorEnd;
+        this.anaphorText = anaphorText;
+        this.score = score;
+        this.stage = stage;
+    }
+
+    public Document getDocument() {
+        return document;
+    }
+
+    /**
+     *
+     * @return      annotation type of both mentions
+     */
+    public String getType() {
+        return type;
+    }
+
+    public int getAntecedentId() {
+        return antecedentId;
+    }
+
+    public long getAntecedentStart() {
+        return antecedentStart;
+    }
+
+    public long getAntecedentEnd() {
+        return antecedentEnd;
+    }
+
+    /**
+     *
+     * @return      content feature or string content of the antecedent, as written to backrefTextFeature
+     */
+    public String getAntecedentText() {
+        return antecedentText;
+    }
+
+    public int getAnaphorId() {
+        return anaphorId;
+    }
+
+    public long getAnaphorStart() {
+        return anaphorStart;
+    }
+
+    public long getAnaphorEnd() {
+        return anaphorEnd;
+    }
+
+    /**
+     *
+     * @return      content feature or string content of the anaphor, as written to corefTextFeature
+     */
+    public String getAnaphorText() {
+        return anaphorText;
+    }
+
+    public double getScore() {
+        return score;
+    }
+
+    /**
+     *
+     * @return      stage of the sieve at which the pair matched
+     */
+    public BaselineCoreference.SieveStage getStage() {
+        return stage;
+    }
+
+    @Override
+    public String toString() {
+        return antecedentId + " -> " + anaphorId + " " + type + " " + stage + " " + score;
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.philgooch;
+
+import gate.Document;
+
+/**
+ * Receives the links of a BaselineCoreference PR as they are made, rather than after execute() has finished.
+ * Methods are called in order on a delivery thread of the PR, not on the thread running execute(), so they must
+ * not change the document. If a listener falls more than linkBufferSize events behind, the PR waits for it.
+ *
+ * @author philipgooch
+ */
+public interface CoreferenceListener {
+
+    /**
+     * An antecedent has been linked to its anaphor
+     * @param link      the link
+     */
+    void linkFound(CoreferenceLink link);
+
+    /**
+     * Every chain of one of inputASTypes is complete, though cross-document linking may still follow
+     * @param document          document being processed
+     * @param inputASType       entry of inputASTypes whose chains are complete
+     */
+    void chainsComplete(Document document, String inputASType);
+
+    /**
+     * Processing of a document has finished, or was skipped or failed; execute() returns once this call has returned
+     * @param document          document that was processed
+     */
+    void documentComplete(Document document);
+}
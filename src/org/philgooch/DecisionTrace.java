@@ -0,0 +1,329 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.philgooch;
+
+import org.philgooch.BaselineCoreference.RejectionReason;
+import org.philgooch.BaselineCoreference.SieveStage;
+
+import java.io.*;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sampled trace of the sieve decisions of a BaselineCoreference PR. The PR writes fixed-size binary records into
+ * a ring buffer without locking or allocating, and a daemon thread appends them to a trace file. If the ring is
+ * full, records are dropped and counted rather than slowing the PR down. Each PR needs its own trace file.
+ *
+ * The file starts with MAGIC, followed by records that each start with a type byte:
+ * RUN: start time of the run in milliseconds (long), written each time a PR opens the file, as document numbers
+ * start again from 1 in each run;
+ * DOCUMENT: document number (int), document name (UTF);
+ * PAIR: document number, antecedent id, anaphor id (ints), matched stage, rejection reason (bytes),
+ * stages tested (int bit set of SieveStage ordinals), similarity score (double), feature match ratio (float);
+ * DROPPED: number of records dropped since the last DROPPED record (long).
+ * Files starting with MAGIC_V1 have no RUN records.
+ *
+ * Usage: DecisionTrace traceFile
+ * prints a trace file as tab separated text.
+ *
+ * @author philipgooch
+ */
+public class DecisionTrace {
+
+    static final String MAGIC = "BCTRACE2";
+    static final String MAGIC_V1 = "BCTRACE1";
+
+    static final byte DOCUMENT = 1;
+    static final byte PAIR = 2;
+    static final byte DROPPED = 3;
+    static final byte RUN = 4;
+
+    private static final int RECORD_SIZE = 32;
+    static final int MAX_SLOTS = Integer.MAX_VALUE / RECORD_SIZE;     // the ring is a single array
+    private static final long FLUSH_INTERVAL = 100;     // milliseconds between drains of the ring
+
+    // Ring of RECORD_SIZE byte records, written by the PR thread and read by the flusher
+    private final byte[] ring;
+    private final int numSlots;
+    private final ByteBuffer writeBuffer;
+    private final ByteBuffer readBuffer;
+    private volatile long writeSeq;
+    private volatile long readSeq;
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final Map<Integer, String> documentNames = new ConcurrentHashMap<Integer, String>();
+    private final double sampleRate;
+    private final Set<String> sampledDocuments;
+    private int documentSeq;
+
+    private final DataOutputStream out;
+    private final Thread flusher;
+    private volatile boolean closed;
+
+
+    /**
+     *
+     * @param file              trace file, appended to if it exists
+     * @param numSlots          number of records the ring holds, from 1 to MAX_SLOTS
+     * @param sampleRate        fraction of documents to trace
+     * @param sampledDocuments  names of the documents to trace, or null or empty to sample by rate
+     * @throws IOException      if the file can't be opened, or was written by an earlier version
+     */
+    DecisionTrace(File file, int numSlots, double sampleRate, Collection<String> sampledDocuments) throws IOException {
+        if (numSlots < 1 || numSlots > MAX_SLOTS) {
+            throw new IllegalArgumentException("Trace buffer size must be from 1 to " + MAX_SLOTS + ", not " + numSlots);
+        }
+        this.numSlots = numSlots;
+        this.ring = new byte[numSlots * RECORD_SIZE];
+        this.writeBuffer = ByteBuffer.wrap(ring);
+        this.readBuffer = ByteBuffer.wrap(ring);
+        this.sampleRate = sampleRate;
+        this.sampledDocuments = (sampledDocuments == null || sampledDocuments.isEmpty()) ? null : new HashSet<String>(sampledDocuments);
+
+        boolean isNew = !file.exists() || file.length() == 0;
+        if (!isNew) {
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                byte[] magic = new byte[MAGIC.length()];
+                in.readFully(magic);
+                if (!MAGIC.equals(new String(magic, "US-ASCII"))) {
+                    throw new IOException("Not a decision trace, or one written by an earlier version: " + file);
+                }
+            } finally {
+                in.close();
+            }
+        }
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        if (isNew) {
+            out.writeBytes(MAGIC);
+        }
+        out.writeByte(RUN);
+        out.writeLong(System.currentTimeMillis());
+        out.flush();
+        flusher = new Thread("BaselineCoreference trace") {
+            @Override
+            public void run() {
+                while (!closed) {
+                    try {
+                        drain();
+                        Thread.sleep(FLUSH_INTERVAL);
+                    } catch (InterruptedException ie) {
+                        // closing
+                    } catch (IOException ioe) {
+                        gate.util.Err.println("Unable to write decision trace: " + ioe.getMessage());
+                        return;
+                    }
+                }
+            }
+        };
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+
+    /**
+     *
+     * @param traceFileURL      trace file, appended to if it exists
+     * @param numSlots          number of records the ring holds
+     * @param sampleRate        fraction of documents to trace
+     * @param sampledDocuments  names of the documents to trace, or null or empty to sample by rate
+     * @return                  the trace, or null if it could not be opened
+     */
+    static DecisionTrace open(URL traceFileURL, int numSlots, double sampleRate, Collection<String> sampledDocuments) {
+        try {
+            return new DecisionTrace(new File(traceFileURL.toURI()), numSlots, sampleRate, sampledDocuments);
+        } catch (URISyntaxException use) {
+            gate.util.Err.println("Invalid traceFileURL " + traceFileURL);
+        } catch (IOException ioe) {
+            gate.util.Err.println("Unable to open trace file " + traceFileURL + ": " + ioe.getMessage());
+        } catch (IllegalArgumentException iae) {
+            gate.util.Err.println("Unable to open trace file " + traceFileURL + ": " + iae.getMessage());
+        }
+        return null;
+    }
+
+
+    /**
+     * Decide whether to trace a document, and start its records if so. Sampling is by a hash of the
+     * document name, so the same documents are traced if the corpus is run again.
+     * @param documentName      document name
+     * @return                  true if the pairs of the document should be traced
+     */
+    boolean startDocument(String documentName) {
+        String name = (documentName == null) ? "" : documentName;
+        boolean sampled;
+        if (sampledDocuments != null) {
+            sampled = sampledDocuments.contains(name);
+        } else {
+            long hash = name.hashCode() * 0x9E3779B97F4A7C15L;
+            sampled = ((hash >>> 11) * 0x1.0p-53) < sampleRate;
+        }
+        if (sampled) {
+            documentSeq++;
+            documentNames.put(documentSeq, name);
+            if (!put(DOCUMENT, 0, 0, 0, 0, 0, 0, 0)) {
+                documentNames.remove(documentSeq);
+            }
+        }
+        return sampled;
+    }
+
+
+    /**
+     * Record a decision of the sieve
+     * @param antecedentId      antecedent annotation id
+     * @param anaphorId         anaphor annotation id
+     * @param stage             stage at which the pair matched, or None
+     * @param reason            why the pair was rejected, or None
+     * @param path              bit set of the ordinals of the stages that were tested
+     * @param score             similarity score
+     * @param featureMatchRatio fraction of comparisonFeats that matched
+     */
+    void recordPair(int antecedentId, int anaphorId, SieveStage stage, RejectionReason reason, int path, double score, double featureMatchRatio) {
+        put(PAIR, antecedentId, anaphorId, stage.ordinal(), reason.ordinal(), path, score, featureMatchRatio);
+    }
+
+    private boolean put(byte type, int antecedentId, int anaphorId, int stage, int reason, int path, double score, double featureMatchRatio) {
+        long seq = writeSeq;
+        if (seq - readSeq >= numSlots) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        int offset = (int)(seq % numSlots) * RECORD_SIZE;
+        writeBuffer.put(offset, type);
+        writeBuffer.put(offset + 1, (byte)stage);
+        writeBuffer.put(offset + 2, (byte)reason);
+        writeBuffer.putInt(offset + 4, documentSeq);
+        writeBuffer.putInt(offset + 8, antecedentId);
+        writeBuffer.putInt(offset + 12, anaphorId);
+        writeBuffer.putDouble(offset + 16, score);
+        writeBuffer.putFloat(offset + 24, (float)featureMatchRatio);
+        writeBuffer.putInt(offset + 28, path);
+        writeSeq = seq + 1;     // publishes the record to the flusher
+        return true;
+    }
+
+
+    /**
+     * Append the records in the ring to the trace file
+     */
+    private synchronized void drain() throws IOException {
+        long end = writeSeq;
+        long seq = readSeq;
+        if (seq == end && dropped.get() == 0) {
+            return;
+        }
+        for (; seq < end; seq++) {
+            int offset = (int)(seq % numSlots) * RECORD_SIZE;
+            byte type = readBuffer.get(offset);
+            int docSeq = readBuffer.getInt(offset + 4);
+            if (type == DOCUMENT) {
+                String name = documentNames.remove(docSeq);
+                out.writeByte(DOCUMENT);
+                out.writeInt(docSeq);
+                out.writeUTF(name == null ? "" : name);
+            } else {
+                out.writeByte(PAIR);
+                out.writeInt(docSeq);
+                out.writeInt(readBuffer.getInt(offset + 8));
+                out.writeInt(readBuffer.getInt(offset + 12));
+                out.writeByte(readBuffer.get(offset + 1));
+                out.writeByte(readBuffer.get(offset + 2));
+                out.writeInt(readBuffer.getInt(offset + 28));
+                out.writeDouble(readBuffer.getDouble(offset + 16));
+                out.writeFloat(readBuffer.getFloat(offset + 24));
+            }
+            readSeq = seq + 1;
+        }
+        long numDropped = dropped.getAndSet(0);
+        if (numDropped > 0) {
+            out.writeByte(DROPPED);
+            out.writeLong(numDropped);
+        }
+        out.flush();
+    }
+
+
+    /**
+     * Stop the flusher, writing any remaining records, and close the trace file
+     */
+    void close() {
+        closed = true;
+        flusher.interrupt();
+        try {
+            flusher.join();
+            drain();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } catch (IOException ioe) {
+            gate.util.Err.println("Unable to write decision trace: " + ioe.getMessage());
+        } finally {
+            try {
+                out.close();
+            } catch (IOException ioe) {
+                // nothing more to write
+            }
+        }
+    }
+
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: DecisionTrace traceFile");
+            System.exit(1);
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(args[0])));
+        try {
+            byte[] magic = new byte[MAGIC.length()];
+            in.readFully(magic);
+            String magicString = new String(magic, "US-ASCII");
+            if (!MAGIC.equals(magicString) && !MAGIC_V1.equals(magicString)) {
+                throw new IOException("Not a decision trace: " + args[0]);
+            }
+            SieveStage[] stages = SieveStage.values();
+            RejectionReason[] reasons = RejectionReason.values();
+            Map<Integer, String> names = new HashMap<Integer, String>();
+            System.out.println("document\tantecedent\tanaphor\tstage\treason\tpath\tscore\tfeatureMatchRatio");
+            int type;
+            while ((type = in.read()) >= 0) {
+                if (type == RUN) {
+                    // document numbers start again
+                    names.clear();
+                    System.out.println("# run started " + new Date(in.readLong()));
+                } else if (type == DOCUMENT) {
+                    int docSeq = in.readInt();
+                    names.put(docSeq, in.readUTF());
+                } else if (type == PAIR) {
+                    int docSeq = in.readInt();
+                    // the document record is missing if it was dropped
+                    String name = names.containsKey(docSeq) ? names.get(docSeq) : "#" + docSeq;
+                    int antecedentId = in.readInt();
+                    int anaphorId = in.readInt();
+                    SieveStage stage = stages[in.readByte()];
+                    RejectionReason reason = reasons[in.readByte()];
+                    int path = in.readInt();
+                    StringBuilder pathNames = new StringBuilder();
+                    for (SieveStage tested : stages) {
+                        if ((path & (1 << tested.ordinal())) != 0) {
+                            pathNames.append(pathNames.length() == 0 ? "" : ",").append(tested);
+                        }
+                    }
+                    System.out.println(name + "\t" + antecedentId + "\t" + anaphorId + "\t" + stage + "\t" + reason + "\t" +
+                            pathNames + "\t" + in.readDouble() + "\t" + in.readFloat());
+                } else if (type == DROPPED) {
+                    System.out.println("# " + in.readLong() + " records dropped");
+                } else {
+                    throw new IOException("Corrupt decision trace: record type " + type);
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
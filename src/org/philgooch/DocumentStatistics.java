@@ -0,0 +1,171 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.philgooch;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Per-document latency and allocation histograms of a BaselineCoreference PR. Each histogram is registered with
+ * the platform MBean server as org.philgooch:type=BaselineCoreference,name=[PR name],histogram=[histogram name],
+ * and percentiles can also be appended to a file at a fixed interval.
+ *
+ * @author philipgooch
+ */
+class DocumentStatistics {
+
+    // Times are in microseconds
+    final LogHistogram setupTime = new LogHistogram();              // metric build, sentence and mention lists, indexes
+    final LogHistogram mainLoopTime = new LogHistogram();           // chaining, less feature writing and link publishing
+    final LogHistogram featureWritingTime = new LogHistogram();     // coref and backref features
+    final LogHistogram linkPublishingTime = new LogHistogram();     // waiting for CoreferenceListeners to take the links
+    final LogHistogram crossDocumentTime = new LogHistogram();      // linking chain heads to the entity index
+    final LogHistogram fingerprintTime = new LogHistogram();        // fingerprint stored for skipUnchangedDocuments
+    final LogHistogram chainExportTime = new LogHistogram();        // block appended to chainFileURL
+    final LogHistogram totalTime = new LogHistogram();
+    final LogHistogram skippedTime = new LogHistogram();            // fingerprint check and chain export of unchanged documents
+    final LogHistogram allocatedBytes = new LogHistogram();         // bytes allocated by the thread running execute()
+
+    private final Map<String, LogHistogram> histograms = new LinkedHashMap<String, LogHistogram>();
+    private final List<ObjectName> registeredNames = new ArrayList<ObjectName>();
+    private Timer dumpTimer;
+    private File dumpFile;
+
+    // com.sun.management.ThreadMXBean.getThreadAllocatedBytes, if this JVM has it
+    private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    private static final Method allocatedBytesMethod = findAllocatedBytesMethod();
+
+    /**
+     *
+     * @param prName        name of the PR, used in the JMX object names
+     */
+    DocumentStatistics(String prName) {
+        histograms.put("setupTimeMicros", setupTime);
+        histograms.put("mainLoopTimeMicros", mainLoopTime);
+        histograms.put("featureWritingTimeMicros", featureWritingTime);
+        histograms.put("linkPublishingTimeMicros", linkPublishingTime);
+        histograms.put("crossDocumentTimeMicros", crossDocumentTime);
+        histograms.put("fingerprintTimeMicros", fingerprintTime);
+        histograms.put("chainExportTimeMicros", chainExportTime);
+        histograms.put("totalTimeMicros", totalTime);
+        histograms.put("skippedTimeMicros", skippedTime);
+        histograms.put("allocatedBytes", allocatedBytes);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        String name = ObjectName.quote(prName == null ? "" : prName);
+        // several copies of the same PR may be running in the same JVM
+        String instance = Integer.toHexString(System.identityHashCode(this));
+        for (Map.Entry<String, LogHistogram> entry : histograms.entrySet()) {
+            try {
+                ObjectName objectName = new ObjectName("org.philgooch:type=BaselineCoreference,name=" + name +
+                        ",instance=" + instance + ",histogram=" + entry.getKey());
+                server.registerMBean(entry.getValue(), objectName);
+                registeredNames.add(objectName);
+            } catch (Exception e) {
+                gate.util.Err.println("Unable to register " + entry.getKey() + " histogram: " + e.getMessage());
+            }
+        }
+    }
+
+
+    /**
+     * Append the percentiles of each histogram to a file at a fixed interval
+     * @param file          dump file
+     * @param seconds       interval between dumps
+     */
+    synchronized void startDump(File file, int seconds) {
+        dumpFile = file;
+        dumpTimer = new Timer("BaselineCoreference statistics", true);
+        long period = Math.max(1, seconds) * 1000L;
+        dumpTimer.scheduleAtFixedRate(new TimerTask() {
+            @Override
+            public void run() {
+                dump();
+            }
+        }, period, period);
+    }
+
+
+    /**
+     * Append the count, p50, p99, p999 and max of each histogram to the dump file
+     */
+    synchronized void dump() {
+        if (dumpFile == null) {
+            return;
+        }
+        PrintWriter out = null;
+        try {
+            out = new PrintWriter(new BufferedWriter(new FileWriter(dumpFile, true)));
+            out.println("# " + new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss").format(new Date()));
+            out.println("histogram\tcount\tp50\tp99\tp999\tmax");
+            for (Map.Entry<String, LogHistogram> entry : histograms.entrySet()) {
+                LogHistogram histogram = entry.getValue();
+                out.println(entry.getKey() + "\t" + histogram.getCount() + "\t" + histogram.getP50() + "\t" +
+                        histogram.getP99() + "\t" + histogram.getP999() + "\t" + histogram.getMax());
+            }
+        } catch (IOException ioe) {
+            gate.util.Err.println("Unable to write statistics to " + dumpFile + ": " + ioe.getMessage());
+        } finally {
+            if (out != null) {
+                out.close();
+            }
+        }
+    }
+
+
+    /**
+     * Stop the dump, writing a final one, and unregister the histograms
+     */
+    synchronized void close() {
+        if (dumpTimer != null) {
+            dumpTimer.cancel();
+            dumpTimer = null;
+            dump();
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName objectName : registeredNames) {
+            try {
+                server.unregisterMBean(objectName);
+            } catch (Exception e) {
+                // already gone
+            }
+        }
+        registeredNames.clear();
+    }
+
+
+    /**
+     *
+     * @return      bytes allocated so far by the current thread, or -1 if the JVM can't tell
+     */
+    static long getThreadAllocatedBytes() {
+        if (allocatedBytesMethod == null) {
+            return -1;
+        }
+        try {
+            return (Long)allocatedBytesMethod.invoke(threadBean, Thread.currentThread().getId());
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    private static Method findAllocatedBytesMethod() {
+        try {
+            Class<?> sunThreadBean = Class.forName("com.sun.management.ThreadMXBean");
+            if (sunThreadBean.isInstance(threadBean)) {
+                return sunThreadBean.getMethod("getThreadAllocatedBytes", long.class);
+            }
+        } catch (Exception e) {
+            // not a HotSpot JVM
+        }
+        return null;
+    }
+}
@@ -0,0 +1,760 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.philgooch;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Sharded index of the chain heads of a corpus, for linking the same entity across documents. Each head is
+ * filed under a few blocking keys, and a new head is only compared with the heads that share one of its blocks.
+ * A block holds at most MAX_BLOCK_SIZE heads, dropping its least recently linked head to take a new one, so a
+ * common key costs a bounded number of comparisons, and keys made from stop words are not used at all. Each
+ * shard has its own lock so that several PRs can link documents concurrently.
+ *
+ * If maxHeads is set, every shard has an append-only log of blocks. Once a shard holds more than its share of
+ * maxHeads in memory, its least recently used blocks are written to the log and dropped from memory, and are
+ * read back from the log when a head needs them again, so that no entity is forgotten. A mapped table of block
+ * key hashes to log offsets, kept outside the heap, finds the latest record of a block. The logs of an index
+ * without a directory are kept in a temporary directory, which is deleted when the index is released; an index
+ * with neither a directory nor maxHeads is held in memory only.
+ *
+ * An index with a directory is saved periodically and on release: the changed blocks are appended to the logs,
+ * which are forced to disk, and then a checkpoint naming the length of each log is written to a temporary file
+ * and renamed into place. On loading, anything written after the last checkpoint is truncated, so a crash loses
+ * at most the links made since the last save. A log with more superseded records than live ones is compacted
+ * into a new generation of the log, which the next checkpoint switches to. The directory is locked, so only one
+ * process at a time can use it.
+ *
+ * @author philipgooch
+ */
+class EntityIndex {
+
+    static final int NUM_SHARDS = 64;
+    static final int MAX_BLOCK_SIZE = 32;
+
+    private static final long SAVE_INTERVAL = 60000;       // milliseconds between periodic saves
+    private static final int MIN_COMPACT_RECORDS = 1024;    // superseded records a log may hold before it is compacted
+    private static final int CHECKPOINT_MAGIC = 0x42434549;
+    private static final String CHECKPOINT_FILE = "checkpoint.bin";
+    private static final String LOCK_FILE = "index.lock";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    // Words so common in names that a block keyed on them would only gather unrelated heads
+    private static final Set<String> STOP_WORDS = new HashSet<String>(Arrays.asList(
+            "a", "an", "and", "at", "de", "for", "in", "of", "on", "the", "to",
+            "dr", "miss", "mr", "mrs", "ms", "prof", "sir", "st",
+            "co", "company", "corp", "corporation", "group", "inc", "llc", "ltd", "limited", "plc"));
+
+    // Indexes shared by all PRs in the JVM, keyed by directory, or by the empty string for the in-memory index
+    private static final Map<String, EntityIndex> indexes = new HashMap<String, EntityIndex>();
+
+    /**
+     * Scores the similarity of two head strings
+     */
+    interface HeadMatcher {
+        double score(String head1, String head2);
+    }
+
+    private static class Head {
+        final String head;
+        final long entityId;
+
+        Head(String head, long entityId) {
+            this.head = head;
+            this.entityId = entityId;
+        }
+    }
+
+    private static class Block {
+        final List<Head> heads = new ArrayList<Head>(2);
+        boolean dirty;          // changed since it was last written to the log
+    }
+
+    private static class Shard {
+        final ReentrantLock lock = new ReentrantLock();
+        final LinkedHashMap<String, Block> blocks = new LinkedHashMap<String, Block>(16, 0.75f, true);
+        int numHeads;           // heads in memory
+        OffsetTable offsets;    // block key hash to offset of its latest record in the log
+        FileChannel log;
+        int generation;
+        long logLength;
+        long numRecords;        // records in the log, including superseded ones
+        File staleLog;          // previous generation of the log, deleted once a checkpoint no longer names it
+    }
+
+    private final String key;
+    private final File dir;             // null for an index that is only held in memory
+    private final File workDir;         // directory of the logs and offset tables, or null if there are none
+    private final int maxHeadsPerShard; // -1 for no limit
+    private final Shard[] shards = new Shard[NUM_SHARDS];
+    private final AtomicLong lastEntityId = new AtomicLong();
+    private FileChannel lockChannel;
+    private FileLock dirLock;
+    private volatile long lastSaveTime = System.currentTimeMillis();
+    private boolean loaded;             // read back from a checkpoint, so it holds the heads of earlier runs
+    private int users;
+
+
+    private EntityIndex(String key, File dir, int maxHeads) throws IOException {
+        this.key = key;
+        this.dir = dir;
+        if (dir != null) {
+            this.workDir = dir;
+        } else {
+            this.workDir = (maxHeads < 0) ? null : Files.createTempDirectory("entity-index").toFile();
+        }
+        this.maxHeadsPerShard = (maxHeads < 0) ? -1 : Math.max(1, maxHeads / NUM_SHARDS);
+        for (int i = 0; i < NUM_SHARDS; i++) {
+            shards[i] = new Shard();
+        }
+    }
+
+
+    /**
+     * Get the index for a directory, loading it if this is its first user
+     * @param dir           directory the index is saved in, or null for an index that is only held in memory
+     * @param maxHeads      maximum number of heads to hold in memory, -1 for no limit
+     * @return              the shared index
+     * @throws IOException  if the index can't be read, or another process is using it
+     */
+    static synchronized EntityIndex acquire(File dir, int maxHeads) throws IOException {
+        String key = (dir == null) ? "" : dir.getAbsolutePath();
+        EntityIndex index = indexes.get(key);
+        if (index == null) {
+            index = new EntityIndex(key, dir, maxHeads);
+            try {
+                index.open();
+            } catch (IOException ioe) {
+                index.close();
+                throw ioe;
+            }
+            indexes.put(key, index);
+        }
+        index.users++;
+        return index;
+    }
+
+
+    /**
+     * Release an index, saving and closing it if this was its last user
+     * @param index         index from acquire
+     * @throws IOException
+     */
+    static synchronized void release(EntityIndex index) throws IOException {
+        index.users--;
+        if (index.users <= 0) {
+            indexes.remove(index.key);
+            try {
+                if (index.dir != null) {
+                    index.save();
+                }
+            } finally {
+                index.close();
+            }
+        }
+    }
+
+
+    /**
+     *
+     * @param word      first or last word of a head
+     * @return          true if the word is too common, or too short, to be used as a blocking key
+     */
+    static boolean isStopWord(String word) {
+        return word.length() < 2 || STOP_WORDS.contains(HeadWordIndex.foldCase(word));
+    }
+
+
+    /**
+     *
+     * @return      true if the index was read back from a checkpoint of an earlier run, rather than started empty
+     */
+    boolean isLoaded() {
+        return loaded;
+    }
+
+
+    /**
+     * Link a chain head to the best matching entity in its blocks, or to a new entity if nothing matches
+     * @param blockKeys     blocking keys of the head
+     * @param head          head string
+     * @param matcher       similarity of two heads
+     * @param threshold     minimum similarity for a match
+     * @return              entity id
+     * @throws IOException  if a block can't be read from or written to its log
+     */
+    long link(Collection<String> blockKeys, String head, HeadMatcher matcher, double threshold) throws IOException {
+        // Lock the shards in order so that two heads can't deadlock, and so that matching and
+        // adding the head are atomic and the same new entity is not created twice
+        SortedSet<Integer> shardIds = new TreeSet<Integer>();
+        for (String blockKey : blockKeys) {
+            shardIds.add(getShard(blockKey));
+        }
+        for (Integer shardId : shardIds) {
+            shards[shardId].lock.lock();
+        }
+        try {
+            List<Block> blocks = new ArrayList<Block>(blockKeys.size());
+            long entityId = -1;
+            double bestScore = -1;
+            for (String blockKey : blockKeys) {
+                Block block = getBlock(shards[getShard(blockKey)], blockKey);
+                blocks.add(block);
+                if (block == null) {
+                    continue;
+                }
+                for (Head candidate : block.heads) {
+                    double score = candidate.head.equalsIgnoreCase(head) ? 1.0 : matcher.score(head, candidate.head);
+                    if (score >= threshold && score > bestScore) {
+                        bestScore = score;
+                        entityId = candidate.entityId;
+                    }
+                }
+            }
+            if (entityId < 0) {
+                entityId = lastEntityId.incrementAndGet();
+            }
+            Head newHead = new Head(head, entityId);
+            Iterator<Block> blockItr = blocks.iterator();
+            for (String blockKey : blockKeys) {
+                Shard shard = shards[getShard(blockKey)];
+                Block block = blockItr.next();
+                if (block == null) {
+                    block = new Block();
+                    shard.blocks.put(blockKey, block);
+                }
+                add(shard, block, newHead);
+            }
+            // Evict only once the blocks of this head have been updated
+            for (Integer shardId : shardIds) {
+                Shard shard = shards[shardId];
+                evict(shard);
+                // an index with a directory compacts when it is saved, so that the checkpoint switches generations
+                if (dir == null && shard.log != null && needsCompaction(shard)) {
+                    compact(shardId);
+                    shard.staleLog.delete();
+                    shard.staleLog = null;
+                }
+            }
+            return entityId;
+        } finally {
+            for (Integer shardId : shardIds) {
+                shards[shardId].lock.unlock();
+            }
+        }
+    }
+
+
+    private static int getShard(String blockKey) {
+        return (blockKey.hashCode() & 0x7fffffff) % NUM_SHARDS;
+    }
+
+    private static long getHash(String blockKey) {
+        return new Fingerprint().add(blockKey).getValue();
+    }
+
+    /**
+     * Get a block of a locked shard from memory, or from the log if it has been evicted
+     * @return      the block, or null if it doesn't exist
+     */
+    private Block getBlock(Shard shard, String blockKey) throws IOException {
+        Block block = shard.blocks.get(blockKey);
+        if (block == null && shard.log != null) {
+            long offset = shard.offsets.offsetAt(findSlot(shard, blockKey));
+            if (offset >= 0) {
+                DataInputStream in = readRecord(shard.log, offset);
+                in.readUTF();
+                block = new Block();
+                int numHeads = in.readInt();
+                for (int i = 0; i < numHeads; i++) {
+                    String head = in.readUTF();
+                    block.heads.add(new Head(head, in.readLong()));
+                }
+                shard.blocks.put(blockKey, block);
+                shard.numHeads += numHeads;
+            }
+        }
+        return block;
+    }
+
+    /**
+     * Find the offset table slot of a block key of a locked shard. Keys that share a hash take successive slots,
+     * and are told apart by the key at the start of their record.
+     * @return      the slot of the key, or the empty slot where it would go
+     */
+    private static int findSlot(Shard shard, String blockKey) throws IOException {
+        long hash = getHash(blockKey);
+        int slot = shard.offsets.firstSlot(hash);
+        while (shard.offsets.offsetAt(slot) >= 0) {
+            if (shard.offsets.keyAt(slot) == hash && blockKey.equals(readRecord(shard.log, shard.offsets.offsetAt(slot)).readUTF())) {
+                break;
+            }
+            slot = shard.offsets.nextSlot(slot);
+        }
+        return slot;
+    }
+
+    /**
+     * Add a head to a block of a locked shard. A head already in the block for the same entity becomes the most
+     * recently linked, and a full block drops its least recently linked head.
+     */
+    private static void add(Shard shard, Block block, Head head) {
+        for (Iterator<Head> itr = block.heads.iterator(); itr.hasNext();) {
+            Head other = itr.next();
+            if (other.entityId == head.entityId && other.head.equalsIgnoreCase(head.head)) {
+                itr.remove();
+                block.heads.add(other);
+                return;
+            }
+        }
+        if (block.heads.size() >= MAX_BLOCK_SIZE) {
+            block.heads.remove(0);
+            shard.numHeads--;
+        }
+        block.heads.add(head);
+        block.dirty = true;
+        shard.numHeads++;
+    }
+
+    /**
+     * Write the least recently used blocks of a locked shard to its log and drop them from memory, until the
+     * shard holds no more than its share of maxHeads
+     */
+    private void evict(Shard shard) throws IOException {
+        Iterator<Map.Entry<String, Block>> itr = shard.blocks.entrySet().iterator();
+        while (maxHeadsPerShard > 0 && shard.numHeads > maxHeadsPerShard && itr.hasNext()) {
+            Map.Entry<String, Block> eldest = itr.next();
+            if (eldest.getValue().dirty) {
+                writeBlock(shard, eldest.getKey(), eldest.getValue());
+            }
+            itr.remove();
+            shard.numHeads -= eldest.getValue().heads.size();
+        }
+    }
+
+    /**
+     * Append a block to the log of a locked shard. Each record is its length (int) followed by the block key (UTF),
+     * the number of heads (int) and each head (UTF) with its entity id (long).
+     */
+    private static void writeBlock(Shard shard, String blockKey, Block block) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);
+        out.writeUTF(blockKey);
+        out.writeInt(block.heads.size());
+        for (Head head : block.heads) {
+            out.writeUTF(head.head);
+            out.writeLong(head.entityId);
+        }
+        ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+        record.putInt(0, record.capacity() - 4);
+        long offset = shard.logLength;
+        shard.offsets.ensureCapacity();
+        int slot = findSlot(shard, blockKey);
+        writeFully(shard.log, record, offset);
+        shard.offsets.put(slot, getHash(blockKey), offset);
+        shard.logLength += record.capacity();
+        shard.numRecords++;
+        block.dirty = false;
+    }
+
+    private static boolean needsCompaction(Shard shard) {
+        return shard.numRecords > 2L * shard.offsets.size() + MIN_COMPACT_RECORDS;
+    }
+
+    private static DataInputStream readRecord(FileChannel log, long offset) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(4);
+        readFully(log, length, offset);
+        ByteBuffer record = ByteBuffer.allocate(length.getInt(0));
+        readFully(log, record, offset + 4);
+        return new DataInputStream(new ByteArrayInputStream(record.array()));
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Entity index log is truncated");
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+
+    /**
+     * Save the index if SAVE_INTERVAL has passed since it was last saved
+     * @throws IOException
+     */
+    void saveIfDue() throws IOException {
+        if (dir != null && System.currentTimeMillis() - lastSaveTime >= SAVE_INTERVAL) {
+            synchronized (this) {
+                if (System.currentTimeMillis() - lastSaveTime >= SAVE_INTERVAL) {
+                    save();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Save the index to its directory: append the changed blocks to the logs, force them to disk and commit
+     * them with a new checkpoint
+     * @throws IOException
+     */
+    synchronized void save() throws IOException {
+        int[] generations = new int[NUM_SHARDS];
+        long[] lengths = new long[NUM_SHARDS];
+        for (int i = 0; i < NUM_SHARDS; i++) {
+            Shard shard = shards[i];
+            shard.lock.lock();
+            try {
+                for (Map.Entry<String, Block> entry : shard.blocks.entrySet()) {
+                    if (entry.getValue().dirty) {
+                        writeBlock(shard, entry.getKey(), entry.getValue());
+                    }
+                }
+                if (needsCompaction(shard)) {
+                    compact(i);
+                }
+                shard.log.force(false);
+                generations[i] = shard.generation;
+                lengths[i] = shard.logLength;
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+
+        // Read after the logs, so that it covers every entity id they hold
+        long entityId = lastEntityId.get();
+        File checkpoint = new File(dir, CHECKPOINT_FILE);
+        File tempFile = new File(dir, CHECKPOINT_FILE + TEMP_SUFFIX);
+        FileOutputStream fos = new FileOutputStream(tempFile);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(CHECKPOINT_MAGIC);
+            out.writeLong(entityId);
+            for (int i = 0; i < NUM_SHARDS; i++) {
+                out.writeInt(generations[i]);
+                out.writeLong(lengths[i]);
+            }
+            out.flush();
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+        Files.move(tempFile.toPath(), checkpoint.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        lastSaveTime = System.currentTimeMillis();
+
+        for (int i = 0; i < NUM_SHARDS; i++) {
+            Shard shard = shards[i];
+            shard.lock.lock();
+            try {
+                if (shard.staleLog != null && shard.generation == generations[i]) {
+                    shard.staleLog.delete();
+                    shard.staleLog = null;
+                }
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+    }
+
+
+    /**
+     * Copy the live records of the log of a locked shard into the next generation of the log, which is used from
+     * now on. The previous generation is kept until a checkpoint names the new one.
+     */
+    private void compact(int shardId) throws IOException {
+        Shard shard = shards[shardId];
+        File compacted = getLogFile(shardId, shard.generation + 1);
+        FileChannel out = FileChannel.open(compacted.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long length = 0;
+        try {
+            ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+            for (int slot = 0; slot < shard.offsets.capacity(); slot++) {
+                long offset = shard.offsets.offsetAt(slot);
+                if (offset < 0) {
+                    continue;
+                }
+                lengthBuffer.clear();
+                readFully(shard.log, lengthBuffer, offset);
+                ByteBuffer record = ByteBuffer.allocate(4 + lengthBuffer.getInt(0));
+                readFully(shard.log, record, offset);
+                record.flip();
+                writeFully(out, record, length);
+                shard.offsets.setOffsetAt(slot, length);
+                length += record.limit();
+            }
+            out.force(false);
+        } catch (IOException ioe) {
+            out.close();
+            throw ioe;
+        }
+        if (shard.staleLog != null) {
+            shard.staleLog.delete();
+        }
+        shard.staleLog = getLogFile(shardId, shard.generation);
+        shard.log.close();
+        shard.log = out;
+        shard.generation++;
+        shard.logLength = length;
+        shard.numRecords = shard.offsets.size();
+    }
+
+
+    /**
+     * Lock the directory, and open the logs of the shards at their last checkpoint
+     */
+    private void open() throws IOException {
+        int[] generations = new int[NUM_SHARDS];
+        long[] lengths = new long[NUM_SHARDS];
+        if (dir != null) {
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Unable to create entity index directory " + dir);
+            }
+            lockChannel = FileChannel.open(new File(dir, LOCK_FILE).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            dirLock = lockChannel.tryLock();
+            if (dirLock == null) {
+                throw new IOException("Entity index " + dir + " is in use by another process");
+            }
+            File checkpoint = new File(dir, CHECKPOINT_FILE);
+            if (checkpoint.exists()) {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(checkpoint)));
+                try {
+                    if (in.readInt() != CHECKPOINT_MAGIC) {
+                        throw new IOException("Not an entity index checkpoint: " + checkpoint);
+                    }
+                    lastEntityId.set(in.readLong());
+                    for (int i = 0; i < NUM_SHARDS; i++) {
+                        generations[i] = in.readInt();
+                        lengths[i] = in.readLong();
+                    }
+                    loaded = true;
+                } finally {
+                    in.close();
+                }
+            }
+        }
+
+        if (workDir == null) {
+            return;
+        }
+
+        // Logs of other generations, offset tables and temporary files are left over from an earlier run
+        Set<String> current = new HashSet<String>();
+        for (int i = 0; i < NUM_SHARDS; i++) {
+            current.add(getLogFile(i, generations[i]).getName());
+        }
+        File[] files = workDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if ((name.startsWith("shard-") && !current.contains(name)) || name.endsWith(TEMP_SUFFIX)) {
+                    file.delete();
+                }
+            }
+        }
+
+        for (int i = 0; i < NUM_SHARDS; i++) {
+            Shard shard = shards[i];
+            shard.generation = generations[i];
+            shard.offsets = new OffsetTable(new File(workDir, "shard-" + i + ".offsets"));
+            File logFile = getLogFile(i, generations[i]);
+            shard.log = FileChannel.open(logFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (shard.log.size() < lengths[i]) {
+                throw new IOException("Entity index log " + logFile + " is shorter than its checkpoint");
+            }
+            // drop anything written after the last checkpoint
+            shard.log.truncate(lengths[i]);
+            shard.logLength = lengths[i];
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(shard.log.position(0))));
+            long offset = 0;
+            while (offset < shard.logLength) {
+                byte[] record = new byte[in.readInt()];
+                in.readFully(record);
+                String blockKey = new DataInputStream(new ByteArrayInputStream(record)).readUTF();
+                shard.offsets.ensureCapacity();
+                shard.offsets.put(findSlot(shard, blockKey), getHash(blockKey), offset);
+                shard.numRecords++;
+                offset += 4 + record.length;
+            }
+        }
+    }
+
+
+    /**
+     * Close the logs and offset tables, unlock the directory, and delete the working directory of an in-memory index
+     */
+    private void close() throws IOException {
+        for (Shard shard : shards) {
+            if (shard.log != null) {
+                shard.log.close();
+            }
+            if (shard.offsets != null) {
+                shard.offsets.close();
+            }
+        }
+        if (dirLock != null) {
+            dirLock.release();
+        }
+        if (lockChannel != null) {
+            lockChannel.close();
+        }
+        if (dir == null && workDir != null) {
+            File[] files = workDir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            workDir.delete();
+        }
+    }
+
+    private File getLogFile(int shardId, int generation) {
+        return new File(workDir, "shard-" + shardId + "-" + generation + ".log");
+    }
+
+
+    /**
+     * Open addressing hash table of long keys to long offsets, in a memory mapped file rather than on the heap,
+     * so that the number of blocks in a log doesn't bound the size of the index. Each slot is the key followed by
+     * the offset plus one, with zero for an empty slot. A key may be in several slots, as the caller tells apart
+     * the entries of keys that share a hash.
+     */
+    private static class OffsetTable {
+
+        private static final int SLOT_SIZE = 16;
+        private static final int MIN_SLOTS = 1 << 10;
+        private static final int MAX_SLOTS = 1 << 27;       // a mapping is at most 2GB
+
+        private final File baseFile;
+        private File file;
+        private MappedByteBuffer slots;
+        private int capacity;
+        private int size;
+
+
+        OffsetTable(File baseFile) throws IOException {
+            this.baseFile = baseFile;
+            this.file = baseFile;
+            this.slots = map(baseFile, MIN_SLOTS);
+            this.capacity = MIN_SLOTS;
+        }
+
+        private static MappedByteBuffer map(File file, int numSlots) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(0);
+                raf.setLength((long)numSlots * SLOT_SIZE);
+                return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, (long)numSlots * SLOT_SIZE);
+            } finally {
+                raf.close();
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        int capacity() {
+            return capacity;
+        }
+
+        /**
+         *
+         * @return      the first slot to probe for the key
+         */
+        int firstSlot(long key) {
+            return (int)(key ^ (key >>> 32)) & (capacity - 1);
+        }
+
+        int nextSlot(int slot) {
+            return (slot + 1) & (capacity - 1);
+        }
+
+        long keyAt(int slot) {
+            return slots.getLong(slot * SLOT_SIZE);
+        }
+
+        /**
+         * Grow the table if it has no room for another key, which moves the keys to other slots
+         */
+        void ensureCapacity() throws IOException {
+            if ((size + 1) * 4L > capacity * 3L) {
+                grow();
+            }
+        }
+
+        /**
+         * Set the offset of a slot found by probing since the last call to ensureCapacity
+         */
+        void put(int slot, long key, long offset) {
+            if (slots.getLong(slot * SLOT_SIZE + 8) == 0) {
+                slots.putLong(slot * SLOT_SIZE, key);
+                size++;
+            }
+            slots.putLong(slot * SLOT_SIZE + 8, offset + 1);
+        }
+
+        /**
+         *
+         * @return      the offset in a slot, or -1 if it is empty
+         */
+        long offsetAt(int slot) {
+            return slots.getLong(slot * SLOT_SIZE + 8) - 1;
+        }
+
+        void setOffsetAt(int slot, long offset) {
+            slots.putLong(slot * SLOT_SIZE + 8, offset + 1);
+        }
+
+        private void grow() throws IOException {
+            if (capacity >= MAX_SLOTS) {
+                throw new IOException("Entity index shard has more than " + (MAX_SLOTS / 4 * 3) + " blocks");
+            }
+            MappedByteBuffer oldSlots = slots;
+            int oldCapacity = capacity;
+            File oldFile = file;
+            file = new File(baseFile.getPath() + "." + (capacity * 2));
+            slots = map(file, capacity * 2);
+            capacity *= 2;
+            for (int slot = 0; slot < oldCapacity; slot++) {
+                long value = oldSlots.getLong(slot * SLOT_SIZE + 8);
+                if (value != 0) {
+                    long key = oldSlots.getLong(slot * SLOT_SIZE);
+                    int newSlot = firstSlot(key);
+                    while (slots.getLong(newSlot * SLOT_SIZE + 8) != 0) {
+                        newSlot = nextSlot(newSlot);
+                    }
+                    slots.putLong(newSlot * SLOT_SIZE, key);
+                    slots.putLong(newSlot * SLOT_SIZE + 8, value);
+                }
+            }
+            oldFile.delete();
+        }
+
+        void close() {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.philgooch;
+
+import org.philgooch.BaselineCoreference.MentionFeatures;
+
+import gate.Annotation;
+import gate.AnnotationSet;
+import gate.util.OffsetComparator;
+
+import com.wcohen.ss.api.StringDistance;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Links the chain heads of each document processed by a BaselineCoreference PR to the entities of the corpus
+ * in an EntityIndex, and marks every mention of a chain with the id of its entity
+ *
+ * @author philipgooch
+ */
+class EntityLinker implements Closeable {
+
+    private final BaselineCoreference pr;
+    private final EntityIndex entityIndex;
+
+    /**
+     *
+     * @param pr            the PR whose chains are linked
+     * @param dir           directory in which the index is saved, or null to hold it in memory only
+     * @param maxHeads      maximum number of heads held in memory, -1 for no limit
+     * @throws IOException
+     */
+    EntityLinker(BaselineCoreference pr, File dir, int maxHeads) throws IOException {
+        this.pr = pr;
+        this.entityIndex = EntityIndex.acquire(dir, maxHeads);
+    }
+
+
+    /**
+     *
+     * @return      true if the index was loaded from its directory
+     */
+    boolean isLoaded() {
+        return entityIndex.isLoaded();
+    }
+
+
+    /**
+     * Heads are blocked on their input type, matchingFeats values and either the whole head or its first or last
+     * word unless that is a stop word
+     * @param inputAS       input annotation set
+     * @param inputFilters  filters selecting the mentions of each of inputASTypes
+     * @param docContent    document content
+     * @param metrics       string distance metrics
+     * @param threshold     minimum similarity for a match
+     * @return              false if the latency budget ran out before every head was linked
+     * @throws IOException
+     */
+    boolean link(AnnotationSet inputAS, List<AnnotationFilter> inputFilters, String docContent,
+            final StringDistance[] metrics, double threshold) throws IOException {
+        final int shortestWord = pr.getShortestWord();
+        EntityIndex.HeadMatcher matcher = new EntityIndex.HeadMatcher() {
+            public double score(String head1, String head2) {
+                if (metrics == null || head1.length() < shortestWord || head2.length() < shortestWord) {
+                    return 0.0;
+                }
+                return pr.getSimilarityScore(metrics, head1, head2);
+            }
+        };
+        String backrefIdFeature = pr.getBackrefIdFeature();
+        String entityIdFeature = pr.getEntityIdFeature();
+
+        for (AnnotationFilter inputFilter : inputFilters) {
+            // Link in document order so that entity ids are assigned deterministically
+            List<Annotation> mentionList = new ArrayList<Annotation>(inputFilter.apply(inputAS));
+            Collections.sort(mentionList, new OffsetComparator());
+            for (Annotation ann : mentionList) {
+                if (pr.isBudgetExhausted()) {
+                    return false;
+                }
+                if (ann.getFeatures().get(backrefIdFeature) != null ||
+                        pr.isInExclusionRegion(inputAS, ann.getStartNode().getOffset(), ann.getEndNode().getOffset())) {
+                    continue;
+                }
+                MentionFeatures head = pr.getAntecedentFeatures(ann, docContent);
+                if (head.string.trim().length() == 0) {
+                    continue;
+                }
+                String blockPrefix = inputFilter.getExpression() + "|" + head.matchingFeatList + "|";
+                Set<String> blockKeys = new LinkedHashSet<String>();
+                // The whole head, so that identical heads always meet however common their words are
+                blockKeys.add(blockPrefix + "=" + HeadWordIndex.foldCase(head.string));
+                for (String word : new String[] {BaselineCoreference.getFirstWord(head.string), BaselineCoreference.getLastWord(head.string)}) {
+                    if (!EntityIndex.isStopWord(word)) {
+                        blockKeys.add(blockPrefix + word);
+                    }
+                }
+                long entityId = entityIndex.link(blockKeys, head.string, matcher, threshold);
+
+                // Follow the chain from its head
+                Set<Integer> chainIds = new HashSet<Integer>();
+                MentionFeatures mention = head;
+                while (mention != null && chainIds.add(mention.ann.getId())) {
+                    mention.feats.put(entityIdFeature, entityId);
+                    Annotation next = (mention.corefId == null) ? null : inputAS.get(mention.corefId);
+                    mention = (next == null) ? null : pr.getAntecedentFeatures(next, docContent);
+                }
+            }
+        }
+        entityIndex.saveIfDue();
+        return true;
+    }
+
+
+    /**
+     * Release the index, saving it if it has a directory
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        EntityIndex.release(entityIndex);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.philgooch;
+
+/**
+ * 64-bit running hash of the inputs of a document, used to tell whether a document has changed since it was
+ * last processed. Values are mixed in order; collections whose order is not fixed, such as AnnotationSets,
+ * are added as the sum of the fingerprints of their elements.
+ *
+ * @author philipgooch
+ */
+class Fingerprint {
+
+    private static final long SEED = 0x2545F4914F6CDD1DL;
+
+    private long hash = SEED;
+
+
+    /**
+     * Start again from the empty fingerprint
+     * @return      this fingerprint
+     */
+    Fingerprint reset() {
+        hash = SEED;
+        return this;
+    }
+
+    Fingerprint add(long value) {
+        hash = Long.rotateLeft(hash ^ mix(value), 27) * 0x9E3779B97F4A7C15L + 0x52DCE729L;
+        return this;
+    }
+
+    Fingerprint add(String value) {
+        int length = value.length();
+        add(length);
+        // four characters to each long
+        long chunk = 0;
+        for (int i = 0; i < length; i++) {
+            chunk = (chunk << 16) | value.charAt(i);
+            if ((i & 3) == 3) {
+                add(chunk);
+                chunk = 0;
+            }
+        }
+        if ((length & 3) != 0) {
+            add(chunk);
+        }
+        return this;
+    }
+
+    /**
+     * Add a parameter or feature value by its string form, distinguishing null from any string
+     */
+    Fingerprint add(Object value) {
+        if (value == null) {
+            return add(-1L);
+        }
+        return add(value.toString());
+    }
+
+    long getValue() {
+        return hash;
+    }
+
+
+    /**
+     * Finaliser of MurmurHash3, so that every bit of the value affects every bit of the hash
+     */
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xFF51AFD7ED558CCDL;
+        value ^= value >>> 33;
+        value *= 0xC4CEB9FE1A85EC53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.philgooch;
+
+import gate.FeatureMap;
+
+import java.util.*;
+
+/**
+ * Inverted index from case folded words, e.g. the type names and annFeatsToSortal values of a set of mentions, to
+ * the ids of the mentions that hold them, so that the mentions a head word can match are found with a single hash
+ * lookup instead of comparing the word with the features of each mention in turn.
+ *
+ * @author philipgooch
+ */
+class HeadWordIndex {
+
+    private final Map<String, Set<Integer>> mentions = new HashMap<String, Set<Integer>>();
+
+    // words indexed for each mention, so that they can be removed if its features change
+    private final Map<Integer, List<String>> words = new HashMap<Integer, List<String>>();
+
+
+    /**
+     * Index the words of a mention, replacing any that were indexed before
+     * @param id            mention annotation id
+     * @param wordList      case folded words
+     */
+    void add(Integer id, List<String> wordList) {
+        remove(id);
+        if (wordList.isEmpty()) {
+            return;
+        }
+        for (String word : wordList) {
+            Set<Integer> ids = mentions.get(word);
+            if (ids == null) {
+                ids = new HashSet<Integer>();
+                mentions.put(word, ids);
+            }
+            ids.add(id);
+        }
+        words.put(id, wordList);
+    }
+
+
+    /**
+     *
+     * @param id        mention annotation id
+     */
+    void remove(Integer id) {
+        List<String> wordList = words.remove(id);
+        if (wordList != null) {
+            for (String word : wordList) {
+                Set<Integer> ids = mentions.get(word);
+                if (ids != null) {
+                    ids.remove(id);
+                    if (ids.isEmpty()) {
+                        mentions.remove(word);
+                    }
+                }
+            }
+        }
+    }
+
+
+    /**
+     *
+     * @param word      case folded word
+     * @return          ids of the mentions that hold the word, empty if there are none
+     */
+    Set<Integer> get(String word) {
+        Set<Integer> ids = mentions.get(word);
+        return (ids == null) ? Collections.<Integer>emptySet() : ids;
+    }
+
+
+    /**
+     * Add the case folded String values of a list of features to a list of words, including those held in List
+     * and Set values, e.g. annFeatsToContent synonyms and hypernyms
+     * @param fm            FeatureMap
+     * @param keyList       feature keys whose values are wanted
+     * @param wordList      list the words are added to
+     */
+    static void addFeatureWords(FeatureMap fm, List<String> keyList, List<String> wordList) {
+        if (keyList == null) {
+            return;
+        }
+        for (String key : keyList) {
+            Object feat = fm.get(key);
+            if (feat instanceof String) {
+                wordList.add(foldCase((String)feat));
+            } else if (feat instanceof List || feat instanceof Set) {
+                for (Object value : (Collection)feat) {
+                    if (value instanceof String) {
+                        wordList.add(foldCase((String)value));
+                    }
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Fold the case of each character in the same way as String.equalsIgnoreCase, so that two strings are
+     * equal ignoring case if and only if their folded forms are equal
+     * @param str       input string
+     * @return          folded string
+     */
+    static String foldCase(String str) {
+        char[] chars = str.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.philgooch;
+
+import gate.Document;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delivers the links of a BaselineCoreference PR to its CoreferenceListeners on a daemon thread, so that
+ * listeners can work on the links of a document while the PR is still chaining it. Events pass through a
+ * bounded queue: once a listener is that many events behind, the PR blocks until it catches up. A listener that
+ * throws is logged and delivery goes on; if the delivery thread dies all the same, publishing stops blocking and
+ * drops its events rather than waiting for it forever.
+ *
+ * @author philipgooch
+ */
+class LinkPublisher {
+
+    /**
+     * End of the chains of one of inputASTypes, or of the document if inputASType is null
+     */
+    private static class Signal {
+        final Document document;
+        final String inputASType;
+        final CountDownLatch delivered = new CountDownLatch(1);
+
+        Signal(Document document, String inputASType) {
+            this.document = document;
+            this.inputASType = inputASType;
+        }
+    }
+
+    private final List<CoreferenceListener> listeners = new CopyOnWriteArrayList<CoreferenceListener>();
+    private static final long LIVENESS_INTERVAL = 100;     // milliseconds between checks that the deliverer is alive
+
+    private volatile BlockingQueue<Object> events;
+    private volatile Thread deliverer;
+
+
+    void addListener(CoreferenceListener listener) {
+        listeners.add(listener);
+    }
+
+    void removeListener(CoreferenceListener listener) {
+        listeners.remove(listener);
+    }
+
+    boolean hasListeners() {
+        return !listeners.isEmpty();
+    }
+
+
+    /**
+     * Start the delivery thread, unless it is already running
+     * @param bufferSize    number of events that may be waiting for delivery before publishing blocks
+     */
+    synchronized void start(int bufferSize) {
+        if (deliverer != null) {
+            return;
+        }
+        final BlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(Math.max(1, bufferSize));
+        events = queue;
+        deliverer = new Thread("BaselineCoreference link delivery") {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        deliver(queue.take());
+                    }
+                } catch (InterruptedException ie) {
+                    // closing
+                }
+            }
+        };
+        deliverer.setDaemon(true);
+        deliverer.start();
+    }
+
+    private void deliver(Object event) {
+        Signal signal = (event instanceof Signal) ? (Signal)event : null;
+        for (CoreferenceListener listener : listeners) {
+            try {
+                if (signal == null) {
+                    listener.linkFound((CoreferenceLink)event);
+                } else if (signal.inputASType != null) {
+                    listener.chainsComplete(signal.document, signal.inputASType);
+                } else {
+                    listener.documentComplete(signal.document);
+                }
+            } catch (Throwable t) {
+                // an Error must not kill the thread either, or the PR would wait for it forever
+                gate.util.Err.println("CoreferenceListener " + listener + " failed: " + t);
+            }
+        }
+        if (signal != null) {
+            signal.delivered.countDown();
+        }
+    }
+
+
+    /**
+     * Queue a link for delivery, waiting while the queue is full
+     * @throws InterruptedException
+     */
+    void publishLink(CoreferenceLink link) throws InterruptedException {
+        put(link);
+    }
+
+    /**
+     * Queue the end of the chains of one of inputASTypes for delivery, waiting while the queue is full
+     * @throws InterruptedException
+     */
+    void publishChainsComplete(Document document, String inputASType) throws InterruptedException {
+        put(new Signal(document, inputASType));
+    }
+
+    /**
+     * Queue the end of a document, and wait until it and every event before it have been delivered
+     * @throws InterruptedException
+     */
+    void publishDocumentComplete(Document document) throws InterruptedException {
+        Signal signal = new Signal(document, null);
+        if (put(signal)) {
+            while (!signal.delivered.await(LIVENESS_INTERVAL, TimeUnit.MILLISECONDS) && isDelivering()) {
+                // keep waiting for a live deliverer
+            }
+        }
+    }
+
+
+    /**
+     * Queue an event, waiting while the queue is full and the deliverer is alive
+     * @return      true if the event was queued, false if it was dropped because nothing is delivering
+     */
+    private boolean put(Object event) throws InterruptedException {
+        BlockingQueue<Object> queue = events;
+        while (queue != null && isDelivering()) {
+            if (queue.offer(event, LIVENESS_INTERVAL, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isDelivering() {
+        Thread thread = deliverer;
+        return thread != null && thread.isAlive();
+    }
+
+
+    /**
+     * Stop the delivery thread, dropping any events not yet delivered
+     */
+    synchronized void close() {
+        if (deliverer != null) {
+            deliverer.interrupt();
+            deliverer = null;
+            events = null;
+        }
+    }
+}
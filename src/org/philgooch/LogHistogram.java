@@ -0,0 +1,116 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.philgooch;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of non-negative values in logarithmic buckets, each power of two being split into
+ * 16 linear sub-buckets, so percentiles are accurate to within about 6% whatever the range of the values.
+ * Several threads may record into the same histogram.
+ *
+ * @author philipgooch
+ */
+public class LogHistogram implements LogHistogramMXBean {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int NUM_BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a value
+     * @param value     value to record, negative values are recorded as 0
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        buckets.incrementAndGet(getBucket(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long currMax = max.get();
+        while (value > currMax && !max.compareAndSet(currMax, value)) {
+            currMax = max.get();
+        }
+    }
+
+
+    /**
+     *
+     * @param fraction      percentile as a fraction, e.g. 0.99
+     * @return              upper bound of the bucket holding the percentile, or 0 if nothing has been recorded
+     */
+    public long getPercentile(double fraction) {
+        long[] snapshot = new long[NUM_BUCKETS];
+        long total = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long)Math.ceil(fraction * total));
+        long cumulative = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            cumulative += snapshot[i];
+            if (cumulative >= rank) {
+                return Math.min(getBucketUpperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+
+    private static int getBucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int)value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int)(value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long getBucketUpperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowerBound = ((long)(SUB_BUCKETS + bucket % SUB_BUCKETS)) << shift;
+        return lowerBound + (1L << shift) - 1;
+    }
+
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public double getMean() {
+        long n = count.get();
+        return (n == 0) ? 0.0 : ((double)sum.get()) / n;
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public long getP50() {
+        return getPercentile(0.5);
+    }
+
+    public long getP99() {
+        return getPercentile(0.99);
+    }
+
+    public long getP999() {
+        return getPercentile(0.999);
+    }
+}
@@ -0,0 +1,25 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.philgooch;
+
+/**
+ * JMX view of a LogHistogram
+ *
+ * @author philipgooch
+ */
+public interface LogHistogramMXBean {
+
+    long getCount();
+
+    double getMean();
+
+    long getMax();
+
+    long getP50();
+
+    long getP99();
+
+    long getP999();
+}
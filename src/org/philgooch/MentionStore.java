@@ -0,0 +1,198 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.philgooch;
+
+import gate.Annotation;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Fixed size records of the candidate mentions of one annotation type, sorted by offset, that the SlidingWindow
+ * algorithm streams over. The records can be held in a direct ByteBuffer or a memory-mapped temporary file instead
+ * of on the heap; the annotations themselves are only looked up by id when they are needed. A PR keeps one store
+ * and clears it for each annotation type, so the buffer or mapping is only reallocated when it has to grow.
+ *
+ * @author philipgooch
+ */
+class MentionStore {
+
+    // Record layout
+    private static final int START = 0;            // long start offset
+    private static final int END = 8;              // long end offset
+    private static final int ID = 16;              // int annotation id
+    private static final int SENTENCE = 20;        // int position of the covering sentence, or -1
+    private static final int FLAGS = 24;           // int flags
+    private static final int RECORD_SIZE = 32;
+
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE / RECORD_SIZE;
+
+    private static final int MEMBER = 1;           // mention belongs to the input type list and may start a chain
+
+    private final BaselineCoreference.MentionStorage storage;
+    private ByteBuffer buffer;
+    private int size;
+
+    private File file;
+    private RandomAccessFile raf;
+
+    /**
+     *
+     * @param storage       where to hold the records
+     */
+    MentionStore(BaselineCoreference.MentionStorage storage) {
+        this.storage = storage;
+    }
+
+    BaselineCoreference.MentionStorage getStorage() {
+        return storage;
+    }
+
+
+    /**
+     * Remove every mention, growing the store if it can't hold capacity mentions
+     * @param capacity      number of mentions
+     * @throws IOException  if a store of that many mentions can't be created
+     */
+    void clear(int capacity) throws IOException {
+        size = 0;
+        long bytes = (long)capacity * RECORD_SIZE;
+        if (capacity > MAX_CAPACITY) {
+            throw new IOException("Unable to store " + capacity + " mentions: a store holds at most " + MAX_CAPACITY);
+        }
+        if (buffer != null && buffer.capacity() >= bytes) {
+            return;
+        }
+        // Grow by at least half, so that a run of slightly larger documents doesn't reallocate every time
+        if (buffer != null) {
+            bytes = Math.min((long)MAX_CAPACITY * RECORD_SIZE, Math.max(bytes, buffer.capacity() * 3L / 2 / RECORD_SIZE * RECORD_SIZE));
+        }
+        if (storage == BaselineCoreference.MentionStorage.MappedFile) {
+            if (raf == null) {
+                file = File.createTempFile("mentions", ".bin");
+                raf = new RandomAccessFile(file, "rw");
+            }
+            raf.setLength(bytes);
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+        } else if (storage == BaselineCoreference.MentionStorage.Direct) {
+            buffer = ByteBuffer.allocateDirect((int)bytes);
+        } else {
+            buffer = ByteBuffer.allocate((int)bytes);
+        }
+    }
+
+    /**
+     * Add a mention
+     * @param ann           mention annotation
+     * @param sentencePos   position of the covering sentence, or -1 if there is none
+     * @param isMember      true if the mention belongs to the input type list
+     */
+    void add(Annotation ann, int sentencePos, boolean isMember) {
+        int pos = size * RECORD_SIZE;
+        buffer.putLong(pos + START, ann.getStartNode().getOffset());
+        buffer.putLong(pos + END, ann.getEndNode().getOffset());
+        buffer.putInt(pos + ID, ann.getId());
+        buffer.putInt(pos + SENTENCE, sentencePos);
+        buffer.putInt(pos + FLAGS, isMember ? MEMBER : 0);
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long getStart(int i) {
+        return buffer.getLong(i * RECORD_SIZE + START);
+    }
+
+    long getEnd(int i) {
+        return buffer.getLong(i * RECORD_SIZE + END);
+    }
+
+    int getId(int i) {
+        return buffer.getInt(i * RECORD_SIZE + ID);
+    }
+
+    int getSentence(int i) {
+        return buffer.getInt(i * RECORD_SIZE + SENTENCE);
+    }
+
+    boolean isMember(int i) {
+        return (buffer.getInt(i * RECORD_SIZE + FLAGS) & MEMBER) != 0;
+    }
+
+
+    /**
+     * Sort the records in place by start offset, end offset and then id. Heapsort needs no extra memory.
+     */
+    void sort() {
+        for (int i = size / 2 - 1; i >= 0; i--) {
+            siftDown(i, size);
+        }
+        for (int end = size - 1; end > 0; end--) {
+            swap(0, end);
+            siftDown(0, end);
+        }
+    }
+
+    private void siftDown(int i, int end) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= end) {
+                return;
+            }
+            if (child + 1 < end && compare(child + 1, child) > 0) {
+                child++;
+            }
+            if (compare(child, i) <= 0) {
+                return;
+            }
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    private int compare(int i, int j) {
+        long diff = getStart(i) - getStart(j);
+        if (diff == 0) {
+            diff = getEnd(i) - getEnd(j);
+        }
+        if (diff == 0) {
+            diff = getId(i) - getId(j);
+        }
+        return (diff < 0) ? -1 : ((diff > 0) ? 1 : 0);
+    }
+
+    private void swap(int i, int j) {
+        int pi = i * RECORD_SIZE;
+        int pj = j * RECORD_SIZE;
+        for (int k = 0; k < RECORD_SIZE; k += 8) {
+            long tmp = buffer.getLong(pi + k);
+            buffer.putLong(pi + k, buffer.getLong(pj + k));
+            buffer.putLong(pj + k, tmp);
+        }
+    }
+
+
+    /**
+     * Release the buffer, and delete the temporary file if there is one
+     */
+    void close() {
+        buffer = null;
+        if (raf != null) {
+            try {
+                raf.close();
+            } catch (IOException ioe) {
+                // nothing more we can do
+            }
+            // the mapping stays valid until the buffer is garbage collected, so on some platforms the file
+            // can't be deleted yet, and is left in the temporary directory
+            file.delete();
+            raf = null;
+            file = null;
+        }
+    }
+}
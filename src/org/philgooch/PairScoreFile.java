@@ -0,0 +1,368 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.philgooch;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Compact columnar binary file of the candidate antecedent-anaphor pairs of a corpus, as recorded by
+ * BaselineCoreference when pairScoreFileURL is set. Each document is appended as a self-contained block
+ * holding its mentions, its input type lists and its candidate pairs, one column per value.
+ * Everything in a block is independent of stringMatchThreshold, featureMatchThreshold and
+ * similarityComparison, so ThresholdSweep can replay the chaining for any combination of them.
+ *
+ * @author philipgooch
+ */
+public class PairScoreFile {
+
+    static final int MAGIC = 0x42435053;        // BCPS
+    static final int VERSION = 3;           // version 1 had no maxCandidatesPerAntecedent, nor pairs of anaphors with a back reference;
+                                            // versions 1 and 2 wrote strings with writeUTF, which fails beyond 64KB
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // Mention flags
+    static final byte CAN_OPEN = 1;         // has a covering sentence, is not excluded and has no existing coref id
+    static final byte CLAIMABLE = 2;        // is not excluded and has no existing back reference
+    static final byte DEFINITE = 4;         // is a definite descriptor
+
+    // Pair flags
+    static final byte ESSENTIAL_MATCH = 1;  // all matchingFeats match
+    static final byte SORTAL_MATCH = 2;     // an annFeatsToSortal value of the antecedent matches the anaphor last word
+    static final byte CONTENT_MATCH = 4;    // an annFeatsToContent value of the antecedent matches the anaphor last word
+
+    /**
+     * Recorded data for one document
+     */
+    static class DocumentBlock {
+        String documentName;
+
+        // configuration the pairs were recorded with
+        String metricName;              // empty if no similarity measure
+        int numMetrics;
+        int shortestWord;
+        boolean annTypeToSortal;
+        boolean tentativeSortal;        // comparisonFeats or matchingFeats are set, so sortal anaphors may match on features alone
+        boolean propagateContent;       // contentFeature is the backref text feature, so chained antecedents compare the chain head string
+        int numComparisonFeats;
+        int maxCandidatesPerAntecedent; // -1 for no limit
+
+        String[] strings;               // string table
+
+        // mention columns, grouped into one sorted pool per annotation type
+        int[] mentionId;
+        int[] mentionType;              // index into strings
+        int[] mentionString;            // index into strings
+        byte[] mentionFlags;
+        int[] contentStart;             // offsets into contentValues, one more than the number of mentions
+        int[] contentValues;            // annFeatsToContent values of each mention, index into strings times two, plus one if matched case sensitively
+
+        // input type list columns
+        int[] listPoolStart;            // first mention of the pool of the list's annotation type
+        int[] listPoolEnd;
+        int[] listMemberStart;          // offsets into listMembers, one more than the number of lists
+        int[] listMembers;              // mentions that belong to each list, i.e. that may start a chain
+
+        // pair columns, sorted by antecedent and then by anaphor. Only pairs within the sentence window
+        // of the antecedent, and within maxSortalSentenceDistance for definite descriptors, are recorded.
+        // Excluded anaphors are left out, but anaphors that are not CLAIMABLE because they already have a
+        // back reference are recorded, as they still count against maxCandidatesPerAntecedent
+        int[] pairStart;                // offsets into the pair columns for each antecedent, one more than the number of mentions
+        int[] pairAnaphor;
+        int[] pairFeatureMatches;       // number of matching comparisonFeats
+        byte[] pairFlags;
+        double[] pairScore1;            // NaN if not calculated
+        double[] pairScore2;
+
+        int numMentions() {
+            return mentionId.length;
+        }
+
+        int numLists() {
+            return listPoolStart.length;
+        }
+
+        int numPairs() {
+            return pairAnaphor.length;
+        }
+    }
+
+
+    /**
+     * Append a document block to a pair score file
+     * @param file          pair score file
+     * @param block         recorded document
+     * @throws IOException
+     */
+    static void append(File file, DocumentBlock block) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        write(out, block);
+        out.flush();
+
+        ByteBuffer buffer = ByteBuffer.allocate(12 + bytes.size());
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(bytes.size());
+        buffer.put(bytes.toByteArray());
+        buffer.flip();
+
+        // the lock keeps blocks whole when other processes record to the same file, and the monitor does
+        // the same for other PRs in this JVM, which would otherwise fail to take an overlapping lock
+        synchronized (PairScoreFile.class) {
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            try {
+                FileLock lock = channel.lock();
+                try {
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                } finally {
+                    lock.release();
+                }
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+
+    /**
+     * Read the next document block
+     * @param in        pair score file input
+     * @return          the document block, or null at the end of the file
+     * @throws IOException
+     */
+    static DocumentBlock readNext(DataInputStream in) throws IOException {
+        int magic;
+        try {
+            magic = in.readInt();
+        } catch (EOFException eof) {
+            return null;
+        }
+        if (magic != MAGIC) {
+            throw new IOException("Not a pair score file");
+        }
+        int version = in.readInt();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported pair score file version " + version);
+        }
+        in.readInt();       // block length
+        return read(in, version);
+    }
+
+
+    private static void write(DataOutputStream out, DocumentBlock block) throws IOException {
+        writeString(out, block.documentName == null ? "" : block.documentName);
+        writeString(out, block.metricName);
+        out.writeInt(block.numMetrics);
+        out.writeInt(block.shortestWord);
+        out.writeBoolean(block.annTypeToSortal);
+        out.writeBoolean(block.tentativeSortal);
+        out.writeBoolean(block.propagateContent);
+        out.writeInt(block.numComparisonFeats);
+        out.writeInt(block.maxCandidatesPerAntecedent);
+
+        out.writeInt(block.strings.length);
+        for (String str : block.strings) {
+            writeString(out, str);
+        }
+
+        out.writeInt(block.numMentions());
+        writeInts(out, block.mentionId);
+        writeInts(out, block.mentionType);
+        writeInts(out, block.mentionString);
+        out.write(block.mentionFlags);
+        writeInts(out, block.contentStart);
+        out.writeInt(block.contentValues.length);
+        writeInts(out, block.contentValues);
+
+        out.writeInt(block.numLists());
+        writeInts(out, block.listPoolStart);
+        writeInts(out, block.listPoolEnd);
+        writeInts(out, block.listMemberStart);
+        out.writeInt(block.listMembers.length);
+        writeInts(out, block.listMembers);
+
+        out.writeInt(block.numPairs());
+        writeInts(out, block.pairStart);
+        writeInts(out, block.pairAnaphor);
+        writeInts(out, block.pairFeatureMatches);
+        out.write(block.pairFlags);
+        writeDoubles(out, block.pairScore1);
+        writeDoubles(out, block.pairScore2);
+    }
+
+
+    private static DocumentBlock read(DataInputStream in, int version) throws IOException {
+        DocumentBlock block = new DocumentBlock();
+        block.documentName = readString(in, version);
+        block.metricName = readString(in, version);
+        block.numMetrics = in.readInt();
+        block.shortestWord = in.readInt();
+        block.annTypeToSortal = in.readBoolean();
+        block.tentativeSortal = in.readBoolean();
+        block.propagateContent = in.readBoolean();
+        block.numComparisonFeats = in.readInt();
+        block.maxCandidatesPerAntecedent = (version < 2) ? -1 : in.readInt();
+
+        block.strings = new String[in.readInt()];
+        for (int i = 0; i < block.strings.length; i++) {
+            block.strings[i] = readString(in, version);
+        }
+
+        int numMentions = in.readInt();
+        block.mentionId = readInts(in, numMentions);
+        block.mentionType = readInts(in, numMentions);
+        block.mentionString = readInts(in, numMentions);
+        block.mentionFlags = new byte[numMentions];
+        in.readFully(block.mentionFlags);
+        block.contentStart = readInts(in, numMentions + 1);
+        block.contentValues = readInts(in, in.readInt());
+
+        int numLists = in.readInt();
+        block.listPoolStart = readInts(in, numLists);
+        block.listPoolEnd = readInts(in, numLists);
+        block.listMemberStart = readInts(in, numLists + 1);
+        block.listMembers = readInts(in, in.readInt());
+
+        int numPairs = in.readInt();
+        block.pairStart = readInts(in, numMentions + 1);
+        block.pairAnaphor = readInts(in, numPairs);
+        block.pairFeatureMatches = readInts(in, numPairs);
+        block.pairFlags = new byte[numPairs];
+        in.readFully(block.pairFlags);
+        block.pairScore1 = readDoubles(in, numPairs);
+        block.pairScore2 = readDoubles(in, numPairs);
+        return block;
+    }
+
+
+    /**
+     * Write a string as its UTF-8 length and bytes
+     */
+    private static void writeString(DataOutputStream out, String str) throws IOException {
+        byte[] bytes = str.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in, int version) throws IOException {
+        if (version < 3) {
+            return in.readUTF();
+        }
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    private static void writeInts(DataOutputStream out, int[] column) throws IOException {
+        for (int value : column) {
+            out.writeInt(value);
+        }
+    }
+
+    private static void writeDoubles(DataOutputStream out, double[] column) throws IOException {
+        for (double value : column) {
+            out.writeDouble(value);
+        }
+    }
+
+    private static int[] readInts(DataInputStream in, int size) throws IOException {
+        int[] column = new int[size];
+        for (int i = 0; i < size; i++) {
+            column[i] = in.readInt();
+        }
+        return column;
+    }
+
+    private static double[] readDoubles(DataInputStream in, int size) throws IOException {
+        double[] column = new double[size];
+        for (int i = 0; i < size; i++) {
+            column[i] = in.readDouble();
+        }
+        return column;
+    }
+
+
+    /**
+     * Builds a string table while a document is being recorded
+     */
+    static class StringTable {
+        private final Map<String, Integer> index = new HashMap<String, Integer>();
+        private final List<String> strings = new ArrayList<String>();
+
+        int add(String str) {
+            Integer pos = index.get(str);
+            if (pos == null) {
+                pos = strings.size();
+                strings.add(str);
+                index.put(str, pos);
+            }
+            return pos;
+        }
+
+        String[] toArray() {
+            return strings.toArray(new String[strings.size()]);
+        }
+    }
+
+
+    /**
+     * Growable int column
+     */
+    static class IntColumn {
+        private int[] values = new int[16];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+
+        byte[] toByteArray() {
+            byte[] bytes = new byte[size];
+            for (int i = 0; i < size; i++) {
+                bytes[i] = (byte)values[i];
+            }
+            return bytes;
+        }
+    }
+
+
+    /**
+     * Growable double column
+     */
+    static class DoubleColumn {
+        private double[] values = new double[16];
+        private int size;
+
+        void add(double value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        double[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.philgooch;
+
+/**
+ * Similarity scores of string pairs, precomputed for one document. Each pair is keyed by a 64-bit fingerprint
+ * of its two strings, and keys and scores are held in primitive arrays with open addressing, so a pair costs
+ * 16 bytes of the table instead of a concatenated String key, a boxed Double and a map entry.
+ *
+ * @author philipgooch
+ */
+class PairScoreTable {
+
+    private long[] keys;
+    private double[] scores;
+    private boolean hasZeroKey;         // 0 marks an empty slot, so the pair that fingerprints to 0 is held apart
+    private double zeroKeyScore;
+    private int size;
+
+
+    /**
+     *
+     * @param expectedSize      number of pairs the table should hold without growing
+     */
+    PairScoreTable(int expectedSize) {
+        int capacity = 16;
+        while (capacity * 3L < expectedSize * 4L) {
+            capacity *= 2;
+        }
+        keys = new long[capacity];
+        scores = new double[capacity];
+    }
+
+
+    /**
+     *
+     * @param str1      antecedent string
+     * @param str2      anaphor string
+     * @return          key of the pair
+     */
+    static long getKey(String str1, String str2) {
+        return new Fingerprint().add(str1).add(str2).getValue();
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     *
+     * @param key       key from getKey
+     * @return          true if the table holds a score for the pair
+     */
+    boolean contains(long key) {
+        if (key == 0) {
+            return hasZeroKey;
+        }
+        return keys[findSlot(key)] == key;
+    }
+
+    /**
+     *
+     * @param key       key from getKey
+     * @return          the score of the pair, or NaN if the table doesn't hold it
+     */
+    double get(long key) {
+        if (key == 0) {
+            return hasZeroKey ? zeroKeyScore : Double.NaN;
+        }
+        int slot = findSlot(key);
+        return (keys[slot] == key) ? scores[slot] : Double.NaN;
+    }
+
+    void put(long key, double score) {
+        if (key == 0) {
+            size += hasZeroKey ? 0 : 1;
+            hasZeroKey = true;
+            zeroKeyScore = score;
+            return;
+        }
+        if ((size + 1) * 4L > keys.length * 3L) {
+            grow();
+        }
+        int slot = findSlot(key);
+        if (keys[slot] != key) {
+            keys[slot] = key;
+            size++;
+        }
+        scores[slot] = score;
+    }
+
+    /**
+     * Add every pair of another table, e.g. one filled by a single chunk task
+     */
+    void putAll(PairScoreTable other) {
+        for (int slot = 0; slot < other.keys.length; slot++) {
+            if (other.keys[slot] != 0) {
+                put(other.keys[slot], other.scores[slot]);
+            }
+        }
+        if (other.hasZeroKey) {
+            put(0, other.zeroKeyScore);
+        }
+    }
+
+
+    private int findSlot(long key) {
+        int mask = keys.length - 1;
+        int slot = (int)(key ^ (key >>> 32)) & mask;
+        while (keys[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        double[] oldScores = scores;
+        keys = new long[oldKeys.length * 2];
+        scores = new double[oldKeys.length * 2];
+        for (int slot = 0; slot < oldKeys.length; slot++) {
+            if (oldKeys[slot] != 0) {
+                int newSlot = findSlot(oldKeys[slot]);
+                keys[newSlot] = oldKeys[slot];
+                scores[newSlot] = oldScores[slot];
+            }
+        }
+    }
+}
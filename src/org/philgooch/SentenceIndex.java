@@ -0,0 +1,156 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.philgooch;
+
+import gate.Annotation;
+
+import java.util.List;
+
+/**
+ * Offsets of the sorted Sentence annotations of a document, so that covering sentences and
+ * sentence distances can be found by binary search instead of by querying the AnnotationSet
+ *
+ * @author philipgooch
+ */
+class SentenceIndex {
+
+    private final List<Annotation> sentenceList;
+    private final long[] starts;
+    private final long[] ends;
+    private final long[] maxEnds;       // greatest end offset of any sentence up to and including this one
+
+    /**
+     *
+     * @param sentenceList      Sentence annotations sorted by offset
+     */
+    SentenceIndex(List<Annotation> sentenceList) {
+        this.sentenceList = sentenceList;
+        int numSentences = sentenceList.size();
+        starts = new long[numSentences];
+        ends = new long[numSentences];
+        maxEnds = new long[numSentences];
+        long maxEnd = Long.MIN_VALUE;
+        for (int i = 0; i < numSentences; i++) {
+            Annotation sentence = sentenceList.get(i);
+            starts[i] = sentence.getStartNode().getOffset();
+            ends[i] = sentence.getEndNode().getOffset();
+            maxEnd = Math.max(maxEnd, ends[i]);
+            maxEnds[i] = maxEnd;
+        }
+    }
+
+    /**
+     *
+     * @return      number of sentences
+     */
+    int size() {
+        return starts.length;
+    }
+
+    /**
+     *
+     * @param pos       sentence position
+     * @return          end offset of the sentence
+     */
+    long getEnd(int pos) {
+        return ends[pos];
+    }
+
+    /**
+     *
+     * @param start     annotation start offset
+     * @param end       annotation end offset
+     * @return          position of the last sentence that covers the span, or -1 if there is none
+     */
+    int getCoveringSentence(long start, long end) {
+        int i = countStartingBefore(start + 1) - 1;
+        while (i >= 0 && maxEnds[i] >= end) {
+            if (ends[i] >= end) {
+                return i;
+            }
+            i--;
+        }
+        return -1;
+    }
+
+    /**
+     *
+     * @param start     annotation start offset
+     * @param end       annotation end offset
+     * @return          number of sentences that cover the span
+     */
+    int countCovering(long start, long end) {
+        int count = 0;
+        int i = countStartingBefore(start + 1) - 1;
+        while (i >= 0 && maxEnds[i] >= end) {
+            if (ends[i] >= end) {
+                count++;
+            }
+            i--;
+        }
+        return count;
+    }
+
+    /**
+     * Same as sentenceList.indexOf(sentence), found by binary search on the start offset
+     * @param sentence  Sentence annotation
+     * @return          position of the sentence, or -1 if it is not in the index
+     */
+    int indexOf(Annotation sentence) {
+        long start = sentence.getStartNode().getOffset();
+        for (int i = countStartingBefore(start); i < starts.length && starts[i] == start; i++) {
+            if (sentenceList.get(i).equals(sentence)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     *
+     * @param offset    document offset
+     * @return          number of sentences that start before the offset
+     */
+    int countStartingBefore(long offset) {
+        int low = 0;
+        int high = starts.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (starts[mid] < offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     *
+     * @param offset    document offset
+     * @return          number of sentences that start before the offset and end after it
+     */
+    int countStraddling(long offset) {
+        int count = 0;
+        int i = countStartingBefore(offset) - 1;
+        while (i >= 0 && maxEnds[i] > offset) {
+            if (ends[i] > offset) {
+                count++;
+            }
+            i--;
+        }
+        return count;
+    }
+
+    /**
+     * Same as counting the sentences returned by AnnotationSet.get(sentenceName, start, end)
+     * @param start     start offset of the antecedent
+     * @param end       end offset of the anaphor
+     * @return          number of sentences that overlap the span
+     */
+    int countOverlapping(long start, long end) {
+        return countStraddling(start) + countStartingBefore(end) - countStartingBefore(start);
+    }
+}
@@ -0,0 +1,342 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.philgooch;
+
+import java.io.*;
+import java.nio.file.*;
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+/**
+ * Work queue of document shards in a directory shared by several worker processes, e.g. over NFS, with no other
+ * coordination. A shard is a file listing one document URL per line. Workers claim a shard by renaming it from
+ * queue/ to claimed/[shard]@[worker], which only one of them can do, and on completion write a marker to done/
+ * and delete the claim. Each worker rewrites its heartbeat file in workers/ at a fixed interval; once a worker's
+ * heartbeat has not changed for the stale timeout, measured on the clock of the worker that sees it, its claimed
+ * shards are renamed to another worker, so clocks need not agree between machines. Results must be written so that
+ * processing a shard twice is harmless, as a worker that was only slow may still finish a reclaimed shard.
+ *
+ * @author philipgooch
+ */
+class ShardQueue {
+
+    static final String QUEUE_DIR = "queue";
+    static final String CLAIMED_DIR = "claimed";
+    static final String DONE_DIR = "done";
+    static final String WORKERS_DIR = "workers";
+    static final String SUMMARY_FILE = "summary.txt";
+
+    private static final char OWNER_SEPARATOR = '@';
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * A claimed shard
+     */
+    static class Shard {
+        final String name;
+        final List<String> documents;
+        private final File claimFile;
+
+        Shard(String name, File claimFile, List<String> documents) {
+            this.name = name;
+            this.claimFile = claimFile;
+            this.documents = documents;
+        }
+    }
+
+    /**
+     * Heartbeat of another worker, and when this worker last saw it change
+     */
+    private static class Heartbeat {
+        String content;
+        long changedAt;
+    }
+
+    private final File root;
+    private final File queueDir;
+    private final File claimedDir;
+    private final File doneDir;
+    private final File workersDir;
+    private final String workerId;
+    private final long staleMillis;
+    private final Map<String, Heartbeat> heartbeats = new HashMap<String, Heartbeat>();
+    private long heartbeatSeq;
+
+
+    /**
+     *
+     * @param root          shared queue directory, as set up by create
+     * @param workerId      id of this worker, unique among all workers of the queue
+     * @param staleMillis   time after which a worker whose heartbeat has not changed is taken to have crashed
+     * @throws IOException
+     */
+    ShardQueue(File root, String workerId, long staleMillis) throws IOException {
+        this.root = root;
+        this.queueDir = new File(root, QUEUE_DIR);
+        this.claimedDir = new File(root, CLAIMED_DIR);
+        this.doneDir = new File(root, DONE_DIR);
+        this.workersDir = new File(root, WORKERS_DIR);
+        this.workerId = workerId.replaceAll("[^A-Za-z0-9._-]", "_");
+        this.staleMillis = staleMillis;
+        if (!queueDir.isDirectory()) {
+            throw new IOException("Not a shard queue: " + root);
+        }
+        mkdirs(claimedDir);
+        mkdirs(doneDir);
+        mkdirs(workersDir);
+    }
+
+
+    /**
+     * Set up a queue, splitting a list of documents into shards
+     * @param root                  queue directory
+     * @param documents             document URLs
+     * @param documentsPerShard     number of documents in each shard, at least 1
+     * @return                      number of shards
+     * @throws IOException
+     */
+    static int create(File root, List<String> documents, int documentsPerShard) throws IOException {
+        if (documentsPerShard < 1) {
+            throw new IllegalArgumentException("documentsPerShard must be at least 1, not " + documentsPerShard);
+        }
+        File queueDir = new File(root, QUEUE_DIR);
+        if (queueDir.exists()) {
+            throw new IOException("Shard queue already exists: " + root);
+        }
+        mkdirs(queueDir);
+        int numShards = 0;
+        for (int i = 0; i < documents.size(); i += documentsPerShard) {
+            String name = String.format("shard-%06d", numShards++);
+            writeAtomically(new File(queueDir, name), documents.subList(i, Math.min(i + documentsPerShard, documents.size())));
+        }
+        return numShards;
+    }
+
+
+    /**
+     *
+     * @return      the id of this worker, as used in claim file names
+     */
+    String getWorkerId() {
+        return workerId;
+    }
+
+
+    /**
+     * Claim the next shard in the queue
+     * @return      the shard, or null if the queue is empty
+     * @throws IOException
+     */
+    Shard claim() throws IOException {
+        for (String name : list(queueDir)) {
+            File claimFile = new File(claimedDir, name + OWNER_SEPARATOR + workerId);
+            if (move(new File(queueDir, name), claimFile)) {
+                return new Shard(name, claimFile, readLines(claimFile));
+            }
+            // another worker got there first
+        }
+        return null;
+    }
+
+
+    /**
+     * Claim a shard of a worker whose heartbeat has gone stale
+     * @return      the shard, or null if every claimed shard belongs to a live worker
+     * @throws IOException
+     */
+    Shard reclaim() throws IOException {
+        long now = System.currentTimeMillis();
+        for (String claimName : list(claimedDir)) {
+            int separator = claimName.lastIndexOf(OWNER_SEPARATOR);
+            if (separator < 0) {
+                continue;
+            }
+            String name = claimName.substring(0, separator);
+            String owner = claimName.substring(separator + 1);
+            File claimFile = new File(claimedDir, claimName);
+            // the owner finished but crashed before deleting its claim
+            if (new File(doneDir, name).exists()) {
+                claimFile.delete();
+                continue;
+            }
+            if (owner.equals(workerId) || !isStale(owner, now)) {
+                continue;
+            }
+            File newClaimFile = new File(claimedDir, name + OWNER_SEPARATOR + workerId);
+            if (move(claimFile, newClaimFile)) {
+                gate.util.Err.println("Reclaimed " + name + " from " + owner);
+                return new Shard(name, newClaimFile, readLines(newClaimFile));
+            }
+        }
+        return null;
+    }
+
+    private boolean isStale(String owner, long now) throws IOException {
+        File heartbeatFile = new File(workersDir, owner);
+        String content = heartbeatFile.exists() ? readContent(heartbeatFile) : "";
+        Heartbeat heartbeat = heartbeats.get(owner);
+        if (heartbeat == null || !heartbeat.content.equals(content)) {
+            heartbeat = new Heartbeat();
+            heartbeat.content = content;
+            heartbeat.changedAt = now;
+            heartbeats.put(owner, heartbeat);
+        }
+        return now - heartbeat.changedAt >= staleMillis;
+    }
+
+
+    /**
+     *
+     * @return      true if any shard is still claimed, by this or another worker
+     */
+    boolean hasClaimedShards() {
+        return !list(claimedDir).isEmpty();
+    }
+
+
+    /**
+     * Mark a shard as done and release its claim
+     * @param shard             the shard
+     * @param numDocuments      number of documents processed
+     * @param failed            documents that could not be processed
+     * @return                  false if the shard had been reclaimed by another worker in the meantime
+     * @throws IOException
+     */
+    boolean complete(Shard shard, int numDocuments, List<String> failed) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        lines.add(workerId + "\t" + numDocuments + "\t" + failed.size());
+        lines.addAll(failed);
+        writeAtomically(new File(doneDir, shard.name), lines);
+        return shard.claimFile.delete();
+    }
+
+
+    /**
+     * Rewrite this worker's heartbeat
+     * @param status        current shard and progress, for the summary
+     * @throws IOException
+     */
+    synchronized void heartbeat(String status) throws IOException {
+        heartbeatSeq++;
+        writeAtomically(new File(workersDir, workerId), Collections.singletonList(heartbeatSeq + "\t" +
+                new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss").format(new Date()) + "\t" + status));
+    }
+
+
+    /**
+     * Write the progress of the whole queue to the summary file
+     * @throws IOException
+     */
+    void writeSummary() throws IOException {
+        int numDone = 0;
+        int numDocuments = 0;
+        int numFailed = 0;
+        for (String name : list(doneDir)) {
+            List<String> lines = readLines(new File(doneDir, name));
+            if (lines.isEmpty()) {
+                continue;
+            }
+            String[] counts = lines.get(0).split("\t");
+            numDone++;
+            numDocuments += Integer.parseInt(counts[1]);
+            numFailed += Integer.parseInt(counts[2]);
+        }
+        List<String> claimed = list(claimedDir);
+        List<String> summary = new ArrayList<String>();
+        summary.add("# " + new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss").format(new Date()));
+        summary.add("queued\tclaimed\tdone\tdocuments\tfailed");
+        summary.add(list(queueDir).size() + "\t" + claimed.size() + "\t" + numDone + "\t" + numDocuments + "\t" + numFailed);
+        summary.add("worker\theartbeat\tlast seen\tstatus");
+        for (String worker : list(workersDir)) {
+            summary.add(worker + "\t" + readContent(new File(workersDir, worker)));
+        }
+        summary.add("claimed shard\tworker");
+        for (String claimName : claimed) {
+            summary.add(claimName.replace(OWNER_SEPARATOR, '\t'));
+        }
+        writeAtomically(new File(root, SUMMARY_FILE), summary);
+    }
+
+
+    /**
+     * Names of the files of a queue directory in order, less any partly written ones
+     */
+    private static List<String> list(File dir) {
+        String[] names = dir.list();
+        List<String> list = new ArrayList<String>();
+        if (names != null) {
+            for (String name : names) {
+                if (!name.endsWith(TEMP_SUFFIX)) {
+                    list.add(name);
+                }
+            }
+        }
+        Collections.sort(list);
+        return list;
+    }
+
+    /**
+     * Rename a file atomically
+     * @return      false if the source no longer exists, i.e. another worker moved it first
+     */
+    private static boolean move(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (NoSuchFileException nsfe) {
+            return false;
+        }
+    }
+
+    /**
+     * Write a file under a temporary name and rename it into place, so that readers never see it half written
+     */
+    static void writeAtomically(File file, List<String> lines) throws IOException {
+        File tempFile = new File(file.getParentFile(), file.getName() + "." + Thread.currentThread().getId() + "." +
+                System.nanoTime() + TEMP_SUFFIX);
+        Writer out = new OutputStreamWriter(new FileOutputStream(tempFile), "UTF-8");
+        try {
+            for (String line : lines) {
+                out.write(line);
+                out.write('\n');
+            }
+        } finally {
+            out.close();
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    static List<String> readLines(File file) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.length() > 0) {
+                    lines.add(line);
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return lines;
+    }
+
+    private static String readContent(File file) throws IOException {
+        try {
+            List<String> lines = readLines(file);
+            return lines.isEmpty() ? "" : lines.get(0);
+        } catch (FileNotFoundException fnfe) {
+            // replaced or retired while being read
+            return "";
+        }
+    }
+
+    private static void mkdirs(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create directory " + dir);
+        }
+    }
+}
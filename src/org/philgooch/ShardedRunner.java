@@ -0,0 +1,257 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.philgooch;
+
+import gate.*;
+import gate.util.Err;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.util.*;
+
+/**
+ * Runs BaselineCoreference over a corpus with any number of worker processes, on one machine or several, that
+ * share only a directory. The documents are first split into shards in a ShardQueue; each worker then claims shards
+ * until none are left, reclaiming the shards of workers that have stopped sending heartbeats, and writes each
+ * processed document as GATE XML to output/[shard]/ in the queue directory. The progress of the whole run is kept
+ * in summary.txt.
+ *
+ * Usage: ShardedRunner init queueDirectory documentList [-n documentsPerShard]
+ *        ShardedRunner work queueDirectory [-c configurationSnapshot] [-p pluginDirectory] [-e encoding]
+ *        [-h heartbeatSeconds] [-t staleSeconds] [-w workerId]
+ * where documentList has one document URL or file name per line. Workers are configured with a snapshot written
+ * by BaselineCoreference.writeConfigurationSnapshot, and otherwise use the default parameters. The worker id is
+ * appended to any traceFileURL, statisticsFileURL or entityIndexURL of the snapshot, so that each worker has its own.
+ *
+ * @author philipgooch
+ */
+public class ShardedRunner {
+
+    static final String OUTPUT_DIR = "output";
+
+    private final ShardQueue queue;
+    private final LanguageAnalyser pr;
+    private final File outputDir;
+    private final String encoding;
+    private final long heartbeatMillis;
+    private volatile String status = "starting";
+
+
+    ShardedRunner(ShardQueue queue, LanguageAnalyser pr, File outputDir, String encoding, long heartbeatMillis) {
+        this.queue = queue;
+        this.pr = pr;
+        this.outputDir = outputDir;
+        this.encoding = encoding;
+        this.heartbeatMillis = heartbeatMillis;
+    }
+
+
+    /**
+     * Process shards until every shard of the queue is done
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void run() throws IOException, InterruptedException {
+        Timer heartbeatTimer = new Timer("ShardedRunner heartbeat", true);
+        heartbeatTimer.scheduleAtFixedRate(new TimerTask() {
+            @Override
+            public void run() {
+                try {
+                    queue.heartbeat(status);
+                } catch (IOException ioe) {
+                    Err.println("Unable to write heartbeat: " + ioe.getMessage());
+                }
+            }
+        }, 0, heartbeatMillis);
+
+        try {
+            while (true) {
+                ShardQueue.Shard shard = queue.claim();
+                if (shard == null) {
+                    shard = queue.reclaim();
+                }
+                if (shard == null) {
+                    if (!queue.hasClaimedShards()) {
+                        break;
+                    }
+                    // wait for the other workers to finish their shards, or for their heartbeats to go stale
+                    status = "waiting";
+                    Thread.sleep(heartbeatMillis);
+                    continue;
+                }
+                process(shard);
+                queue.writeSummary();
+            }
+            status = "finished";
+            queue.heartbeat(status);
+            queue.writeSummary();
+        } finally {
+            heartbeatTimer.cancel();
+        }
+    }
+
+
+    private void process(ShardQueue.Shard shard) throws IOException {
+        File shardOutputDir = new File(outputDir, shard.name);
+        if (!shardOutputDir.isDirectory() && !shardOutputDir.mkdirs()) {
+            throw new IOException("Unable to create directory " + shardOutputDir);
+        }
+        List<String> failed = new ArrayList<String>();
+        int numDocuments = shard.documents.size();
+        for (int i = 0; i < numDocuments; i++) {
+            String documentURL = shard.documents.get(i);
+            status = shard.name + " " + i + "/" + numDocuments;
+            try {
+                processDocument(new URL(documentURL), new File(shardOutputDir, getOutputName(i, documentURL)));
+            } catch (Exception e) {
+                Err.println("Unable to process " + documentURL + ": " + e);
+                failed.add(documentURL);
+            }
+        }
+        if (!queue.complete(shard, numDocuments - failed.size(), failed)) {
+            Err.println(shard.name + " was reclaimed by another worker before it was finished");
+        }
+    }
+
+    private void processDocument(URL documentURL, File outputFile) throws Exception {
+        Document document = Factory.newDocument(documentURL, encoding);
+        try {
+            pr.setDocument(document);
+            pr.execute();
+            // written under a temporary name, so that a reclaimed shard simply replaces the same file
+            ShardQueue.writeAtomically(outputFile, Collections.singletonList(document.toXml()));
+        } finally {
+            pr.setDocument(null);
+            Factory.deleteResource(document);
+        }
+    }
+
+    /**
+     * Output file name, prefixed with the position of the document in its shard so that names are unique
+     */
+    private static String getOutputName(int position, String documentURL) {
+        String name = documentURL.substring(documentURL.lastIndexOf('/') + 1).replaceAll("[^A-Za-z0-9._-]", "_");
+        if (name.isEmpty()) {
+            name = "document";
+        }
+        return String.format("%06d-%s.xml", position, name);
+    }
+
+
+    /**
+     * A file or directory URL of the PR's configuration with the worker id appended, as workers can't share one
+     */
+    private static URL getWorkerURL(URL url, String workerId) throws IOException {
+        return (url == null) ? null : new URL(url.toExternalForm() + "-" + workerId);
+    }
+
+
+    private static void exitWithUsage(String message) {
+        if (message != null) {
+            System.err.println(message);
+        }
+        System.err.println("Usage: ShardedRunner init queueDirectory documentList [-n documentsPerShard]");
+        System.err.println("       ShardedRunner work queueDirectory [-c configurationSnapshot] [-p pluginDirectory] [-e encoding] [-h heartbeatSeconds] [-t staleSeconds] [-w workerId]");
+        System.exit(1);
+    }
+
+    /**
+     *
+     * @return      the value of a count option, which must be at least 1
+     */
+    private static int parseCount(String option, String value) {
+        int count = 0;
+        try {
+            count = Integer.parseInt(value);
+        } catch (NumberFormatException nfe) {
+            // reported below
+        }
+        if (count < 1) {
+            exitWithUsage(option + " must be a whole number of at least 1, not " + value);
+        }
+        return count;
+    }
+
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2 || !(args[0].equals("init") || args[0].equals("work"))) {
+            exitWithUsage(null);
+        }
+        File queueDir = new File(args[1]);
+
+        if (args[0].equals("init")) {
+            if (args.length < 3) {
+                exitWithUsage(null);
+            }
+            int documentsPerShard = 100;
+            for (int i = 3; i < args.length; i += 2) {
+                if (i + 1 == args.length) {
+                    exitWithUsage("Missing value for " + args[i]);
+                } else if (args[i].equals("-n")) {
+                    documentsPerShard = parseCount(args[i], args[i + 1]);
+                } else {
+                    exitWithUsage("Unknown option " + args[i]);
+                }
+            }
+            List<String> documents = new ArrayList<String>();
+            for (String line : ShardQueue.readLines(new File(args[2]))) {
+                line = line.trim();
+                documents.add(line.contains(":/") ? line : new File(line).toURI().toURL().toString());
+            }
+            int numShards = ShardQueue.create(queueDir, documents, documentsPerShard);
+            System.out.println(documents.size() + " documents in " + numShards + " shards");
+            return;
+        }
+
+        URL snapshotURL = null;
+        File pluginDir = null;
+        String encoding = "UTF-8";
+        int heartbeatSeconds = 30;
+        int staleSeconds = 300;
+        String workerId = ManagementFactory.getRuntimeMXBean().getName();     // pid@host
+        for (int i = 2; i < args.length; i += 2) {
+            if (i + 1 == args.length) {
+                exitWithUsage("Missing value for " + args[i]);
+            } else if (args[i].equals("-c")) {
+                snapshotURL = new File(args[i + 1]).toURI().toURL();
+            } else if (args[i].equals("-p")) {
+                pluginDir = new File(args[i + 1]);
+            } else if (args[i].equals("-e")) {
+                encoding = args[i + 1];
+            } else if (args[i].equals("-h")) {
+                heartbeatSeconds = parseCount(args[i], args[i + 1]);
+            } else if (args[i].equals("-t")) {
+                staleSeconds = parseCount(args[i], args[i + 1]);
+            } else if (args[i].equals("-w")) {
+                workerId = args[i + 1];
+            } else {
+                exitWithUsage("Unknown option " + args[i]);
+            }
+        }
+        if (pluginDir == null) {
+            // the plugin directory holds BaselineCoreference.jar
+            pluginDir = new File(ShardedRunner.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getParentFile();
+        }
+
+        ShardQueue queue = new ShardQueue(queueDir, workerId, staleSeconds * 1000L);
+        Gate.init();
+        Gate.getCreoleRegister().registerDirectories(pluginDir.toURI().toURL());
+        FeatureMap params = Factory.newFeatureMap();
+        if (snapshotURL != null) {
+            params.put("configurationSnapshotURL", snapshotURL);
+        }
+        BaselineCoreference pr = (BaselineCoreference)Factory.createResource(BaselineCoreference.class.getName(), params);
+        // these are opened on first use, so they can still be changed
+        pr.setTraceFileURL(getWorkerURL(pr.getTraceFileURL(), queue.getWorkerId()));
+        pr.setStatisticsFileURL(getWorkerURL(pr.getStatisticsFileURL(), queue.getWorkerId()));
+        pr.setEntityIndexURL(getWorkerURL(pr.getEntityIndexURL(), queue.getWorkerId()));
+        try {
+            new ShardedRunner(queue, pr, new File(queueDir, OUTPUT_DIR), encoding, heartbeatSeconds * 1000L).run();
+        } finally {
+            Factory.deleteResource(pr);
+        }
+    }
+}
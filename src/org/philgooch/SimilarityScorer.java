@@ -0,0 +1,332 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.philgooch;
+
+import com.wcohen.ss.*;
+import com.wcohen.ss.api.*;
+
+import java.util.*;
+
+/**
+ * Scores one antecedent string against many candidate strings with the configured similarity measures, giving
+ * the same scores as preparing both strings with the first metric and scoring them with each metric in turn.
+ * The antecedent is prepared once: Levenstein is computed with Myers' bit-parallel algorithm (in Hyyro's form for
+ * edit distance) from pattern masks of the antecedent, and Jaro and Jaro-Winkler reuse the antecedent's characters
+ * and scratch buffers instead of building new strings for every pair. Other metrics are scored by the metric itself.
+ * Not safe for concurrent use; each thread needs its own scorer.
+ *
+ * @author philipgooch
+ */
+class SimilarityScorer {
+
+    private static final int GENERIC = 0;
+    private static final int JARO = 1;
+    private static final int JARO_WINKLER = 2;
+    private static final int LEVENSTEIN = 3;
+
+    private final StringDistance[] metrics;
+    private final BaselineCoreference.MeasureCompare comparison;
+    private final int[] kernels;        // how each metric is scored
+    private final boolean useLevenstein;
+
+    // The prepared antecedent
+    private String antecedent;
+    private StringWrapper antecedentWrapper;
+    private char[] antecedentChars = new char[0];      // unwrapped, as compared by Jaro
+    private int antecedentLength;
+    private char[] antecedentFolded = new char[0];     // lower-cased wrapper characters, as compared by Levenstein
+    private int foldedLength;
+
+    // Levenstein pattern masks of the antecedent, bit i set where character i of the antecedent is c
+    private final long[] asciiMasks = new long[256];
+    private final Map<Character, Long> otherMasks = new HashMap<Character, Long>();
+
+    // Scratch space for the candidate and the common characters of a Jaro comparison
+    private char[] candidateChars = new char[16];
+    private char[] marked = new char[16];
+    private char[] common1 = new char[16];
+    private char[] common2 = new char[16];
+    private int[] row = new int[16];
+
+
+    /**
+     *
+     * @param metrics       one or two string distance metrics, as built by DistanceLearnerFactory
+     * @param comparison    how the scores of two metrics are combined
+     */
+    SimilarityScorer(StringDistance[] metrics, BaselineCoreference.MeasureCompare comparison) {
+        this.metrics = metrics;
+        this.comparison = comparison;
+        kernels = new int[metrics.length];
+        boolean levenstein = false;
+        for (int i = 0; i < metrics.length; i++) {
+            Class<?> metricClass = metrics[i].getClass();
+            if (metricClass == Jaro.class) {
+                kernels[i] = JARO;
+            } else if (metricClass == JaroWinkler.class) {
+                kernels[i] = JARO_WINKLER;
+            } else if (metricClass == Levenstein.class) {
+                kernels[i] = LEVENSTEIN;
+                levenstein = true;
+            } else {
+                kernels[i] = GENERIC;
+            }
+        }
+        useLevenstein = levenstein;
+    }
+
+
+    /**
+     *
+     * @param metrics       string distance metrics
+     * @param comparison    how the scores of two metrics are combined
+     * @return              true if this scorer was built for the same metrics and comparison
+     */
+    boolean isFor(StringDistance[] metrics, BaselineCoreference.MeasureCompare comparison) {
+        return this.metrics == metrics && this.comparison == comparison;
+    }
+
+
+    /**
+     *
+     * @param str1      antecedent string
+     * @param str2      anaphor string
+     * @return          similarity of the strings, combining both metrics according to the comparison
+     */
+    double score(String str1, String str2) {
+        prepare(str1);
+        return score(str2);
+    }
+
+
+    /**
+     * Score an antecedent against each of a list of candidates
+     * @param str1          antecedent string
+     * @param candidates    candidate anaphor strings
+     * @return              the similarity of each candidate, in the same order
+     */
+    double[] score(String str1, List<String> candidates) {
+        prepare(str1);
+        int numCandidates = candidates.size();
+        double[] scores = new double[numCandidates];
+        for (int i = 0; i < numCandidates; i++) {
+            scores[i] = score(candidates.get(i));
+        }
+        return scores;
+    }
+
+
+    private double score(String str2) {
+        StringWrapper candidateWrapper = metrics[0].prepare(str2);
+        double metric1Score = score(0, candidateWrapper);
+        double compareScore = metric1Score;
+        if (metrics.length == 2) {
+            double metric2Score = score(1, candidateWrapper);
+            if (comparison == BaselineCoreference.MeasureCompare.mean) {
+                compareScore = (metric1Score + metric2Score) / 2;
+            } else if (comparison == BaselineCoreference.MeasureCompare.max) {
+                compareScore = Math.max(metric1Score, metric2Score);
+            } else {
+                compareScore = Math.min(metric1Score, metric2Score);
+            }
+        }
+        return compareScore;
+    }
+
+    private double score(int metric, StringWrapper candidateWrapper) {
+        switch (kernels[metric]) {
+            case JARO:
+                return jaro(candidateWrapper.unwrap());
+            case JARO_WINKLER:
+                String candidate = candidateWrapper.unwrap();
+                double score = jaro(candidate);
+                return score + getCommonPrefixLength(candidate) * 0.1 * (1 - score);
+            case LEVENSTEIN:
+                return -getEditDistance(candidateWrapper);
+            default:
+                return metrics[metric].score(antecedentWrapper, candidateWrapper);
+        }
+    }
+
+
+    /**
+     * Prepare the antecedent, unless it is the one already prepared
+     */
+    private void prepare(String str1) {
+        if (str1.equals(antecedent)) {
+            return;
+        }
+        antecedent = str1;
+        antecedentWrapper = metrics[0].prepare(str1);
+        String unwrapped = antecedentWrapper.unwrap();
+        antecedentLength = unwrapped.length();
+        antecedentChars = ensureCapacity(antecedentChars, antecedentLength);
+        unwrapped.getChars(0, antecedentLength, antecedentChars, 0);
+
+        if (useLevenstein) {
+            // clear the masks of the previous antecedent
+            for (int i = 0; i < foldedLength && i < 64; i++) {
+                char c = antecedentFolded[i];
+                if (c < 256) {
+                    asciiMasks[c] = 0;
+                }
+            }
+            otherMasks.clear();
+            foldedLength = antecedentWrapper.length();
+            antecedentFolded = ensureCapacity(antecedentFolded, foldedLength);
+            for (int i = 0; i < foldedLength; i++) {
+                char c = Character.toLowerCase(antecedentWrapper.charAt(i));
+                antecedentFolded[i] = c;
+                if (i < 64 && foldedLength <= 64) {
+                    if (c < 256) {
+                        asciiMasks[c] |= 1L << i;
+                    } else {
+                        Long mask = otherMasks.get(c);
+                        otherMasks.put(c, ((mask == null) ? 0L : mask.longValue()) | (1L << i));
+                    }
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Jaro similarity as computed by com.wcohen.ss.Jaro, including its marking of matched characters with '*'
+     */
+    private double jaro(String candidate) {
+        int candidateLength = candidate.length();
+        candidateChars = ensureCapacity(candidateChars, candidateLength);
+        candidate.getChars(0, candidateLength, candidateChars, 0);
+        int halfLength = ((antecedentLength > candidateLength) ? candidateLength : antecedentLength) / 2 + 1;
+
+        common1 = ensureCapacity(common1, antecedentLength);
+        int numCommon1 = getCommonChars(antecedentChars, antecedentLength, candidateChars, candidateLength, halfLength, common1);
+        common2 = ensureCapacity(common2, candidateLength);
+        int numCommon2 = getCommonChars(candidateChars, candidateLength, antecedentChars, antecedentLength, halfLength, common2);
+        if (numCommon1 != numCommon2 || numCommon1 == 0) {
+            return 0;
+        }
+        int transpositions = 0;
+        for (int i = 0; i < numCommon1; i++) {
+            if (common1[i] != common2[i]) {
+                transpositions++;
+            }
+        }
+        transpositions /= 2;
+        return ((double)numCommon1 / (double)antecedentLength + (double)numCommon2 / (double)candidateLength +
+                (double)(numCommon1 - transpositions) / (double)numCommon1) / 3.0;
+    }
+
+    /**
+     * Characters of s that are found in t within the match window, each character of t matching at most once
+     * @return      number of common characters, which are copied to common
+     */
+    private int getCommonChars(char[] s, int sLength, char[] t, int tLength, int halfLength, char[] common) {
+        marked = ensureCapacity(marked, tLength);
+        System.arraycopy(t, 0, marked, 0, tLength);
+        int numCommon = 0;
+        for (int i = 0; i < sLength; i++) {
+            char ch = s[i];
+            int end = Math.min(i + halfLength, tLength);
+            for (int j = Math.max(0, i - halfLength); j < end; j++) {
+                if (marked[j] == ch) {
+                    common[numCommon++] = ch;
+                    marked[j] = '*';
+                    break;
+                }
+            }
+        }
+        return numCommon;
+    }
+
+    /**
+     * Length of the common prefix of the unwrapped strings, up to 4 characters, as used by WinklerRescorer
+     */
+    private int getCommonPrefixLength(String candidate) {
+        int maxLength = Math.min(4, Math.min(antecedentLength, candidate.length()));
+        for (int i = 0; i < maxLength; i++) {
+            if (antecedentChars[i] != candidate.charAt(i)) {
+                return i;
+            }
+        }
+        return maxLength;
+    }
+
+
+    /**
+     * Edit distance between the antecedent and a candidate, comparing lower-cased characters with unit costs
+     * as com.wcohen.ss.Levenstein does
+     */
+    private int getEditDistance(StringWrapper candidateWrapper) {
+        int candidateLength = candidateWrapper.length();
+        if (foldedLength == 0) {
+            return candidateLength;
+        }
+        if (foldedLength > 64) {
+            return getEditDistanceByRows(candidateWrapper, candidateLength);
+        }
+        long mask = (foldedLength == 64) ? -1L : (1L << foldedLength) - 1;
+        long last = 1L << (foldedLength - 1);
+        long pv = mask;
+        long mv = 0;
+        int distance = foldedLength;
+        for (int j = 0; j < candidateLength; j++) {
+            char c = Character.toLowerCase(candidateWrapper.charAt(j));
+            long eq;
+            if (c < 256) {
+                eq = asciiMasks[c];
+            } else {
+                Long otherMask = otherMasks.get(c);
+                eq = (otherMask == null) ? 0 : otherMask.longValue();
+            }
+            long xv = eq | mv;
+            long xh = (((eq & pv) + pv) ^ pv) | eq;
+            long ph = mv | ~(xh | pv);
+            long mh = pv & xh;
+            if ((ph & last) != 0) {
+                distance++;
+            } else if ((mh & last) != 0) {
+                distance--;
+            }
+            // the first row of the matrix grows by one for each candidate character
+            ph = (ph << 1) | 1;
+            mh = mh << 1;
+            pv = (mh | ~(xv | ph)) & mask;
+            mv = ph & xv & mask;
+        }
+        return distance;
+    }
+
+    /**
+     * Edit distance for antecedents too long for a single word of pattern masks
+     */
+    private int getEditDistanceByRows(StringWrapper candidateWrapper, int candidateLength) {
+        row = ensureCapacity(row, foldedLength + 1);
+        for (int i = 0; i <= foldedLength; i++) {
+            row[i] = i;
+        }
+        for (int j = 1; j <= candidateLength; j++) {
+            char c = Character.toLowerCase(candidateWrapper.charAt(j - 1));
+            int diagonal = row[0];
+            row[0] = j;
+            for (int i = 1; i <= foldedLength; i++) {
+                int above = row[i];
+                int cost = (antecedentFolded[i - 1] == c) ? diagonal : diagonal + 1;
+                row[i] = Math.min(cost, Math.min(above, row[i - 1]) + 1);
+                diagonal = above;
+            }
+        }
+        return row[foldedLength];
+    }
+
+
+    private static char[] ensureCapacity(char[] array, int length) {
+        return (array.length >= length) ? array : new char[Math.max(length, array.length * 2)];
+    }
+
+    private static int[] ensureCapacity(int[] array, int length) {
+        return (array.length >= length) ? array : new int[Math.max(length, array.length * 2)];
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.philgooch;
+
+import org.philgooch.BaselineCoreference.MentionFeatures;
+import org.philgooch.BaselineCoreference.RejectionReason;
+
+import gate.Annotation;
+import gate.AnnotationSet;
+import gate.creole.ExecutionException;
+
+import com.wcohen.ss.api.StringDistance;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * SlidingWindow chaining algorithm of a BaselineCoreference PR. The offset-sorted mentions of each input type are
+ * streamed from a MentionStore, and open antecedents are kept in a deque in the order in which the Iterative
+ * algorithm would process their chains, so each anaphor is claimed by the same antecedent. An antecedent leaves
+ * the deque as soon as its sentence window has been passed.
+ *
+ * @author philipgooch
+ */
+class SlidingWindowChainer {
+
+    private final BaselineCoreference pr;
+    private MentionStore mentionStore;      // reused for each type and document
+
+    /**
+     *
+     * @param pr        the PR whose mentions are chained
+     */
+    SlidingWindowChainer(BaselineCoreference pr) {
+        this.pr = pr;
+    }
+
+
+    /**
+     * Antecedent in the sliding window, i.e. the last mention of a chain that has not yet found its anaphor
+     */
+    static class OpenAntecedent {
+        MentionFeatures mention;
+        long start;
+        long end;
+        long windowEnd;         // anaphors must start before the end of the last sentence in the window
+        int sentencesBefore;    // number of sentences that start before the antecedent
+        int straddling;         // number of sentences that start before the antecedent and end after its start
+        int numCandidates;      // number of candidate anaphors compared so far
+    }
+
+
+    /**
+     * Set up a mention as the open antecedent of its chain
+     * @param antecedent    holder for the open antecedent
+     * @param ann           mention annotation
+     * @param inputAS       input annotation set
+     * @param sentences     sentence offsets of the document
+     * @param docContent    document content
+     * @return              false if the mention cannot be an antecedent
+     */
+    boolean openAntecedent(OpenAntecedent antecedent, Annotation ann, AnnotationSet inputAS, SentenceIndex sentences, String docContent) {
+        int sentencePos = pr.getCoveringSentence(inputAS, sentences, ann.getStartNode().getOffset(), ann.getEndNode().getOffset());
+        return openAntecedent(antecedent, ann, sentencePos, inputAS, sentences, docContent);
+    }
+
+
+    /**
+     * Set up a mention as the open antecedent of its chain
+     * @param antecedent    holder for the open antecedent
+     * @param ann           mention annotation
+     * @param sentencePos   position of the sentence covering the mention, or -1 if there is none
+     * @param inputAS       input annotation set
+     * @param sentences     sentence offsets of the document
+     * @param docContent    document content
+     * @return              false if the mention cannot be an antecedent
+     */
+    boolean openAntecedent(OpenAntecedent antecedent, Annotation ann, int sentencePos, AnnotationSet inputAS, SentenceIndex sentences, String docContent) {
+        long start = ann.getStartNode().getOffset();
+        long end = ann.getEndNode().getOffset();
+        // Don't process this antecedent if it occurs within a defined exclusion zone
+        if (sentencePos < 0 || pr.isInExclusionRegion(inputAS, start, end)) {
+            return false;
+        }
+        MentionFeatures p1 = pr.getAntecedentFeatures(ann, docContent);
+        // already linked to an anaphor, so it can't match anything
+        if (p1.corefId != null) {
+            return false;
+        }
+        int endSentencePos = sentences.size() - 1;
+        int maxNominalSentenceDistance = pr.getMaxNominalSentenceDistance();
+        if (maxNominalSentenceDistance > -1) {
+            endSentencePos = Math.min(sentencePos + maxNominalSentenceDistance, endSentencePos);
+        }
+        antecedent.mention = p1;
+        antecedent.start = start;
+        antecedent.end = end;
+        antecedent.windowEnd = sentences.getEnd(endSentencePos);
+        antecedent.sentencesBefore = sentences.countStartingBefore(start);
+        antecedent.straddling = sentences.countStraddling(start);
+        antecedent.numCandidates = 0;
+        return true;
+    }
+
+
+    /**
+     * Chain the mentions of one of inputASTypes in a single pass
+     * @param mentionAS     mentions of one of inputASTypes
+     * @param inputAS       input annotation set
+     * @param sentences     sentence offsets of the document
+     * @param docContent    document content
+     * @param metrics       string distance metrics
+     * @param threshold     minimum score for an approximate string match
+     * @throws ExecutionException
+     */
+    void chain(AnnotationSet mentionAS, AnnotationSet inputAS, SentenceIndex sentences,
+            String docContent, StringDistance[] metrics, double threshold) throws ExecutionException {
+        // As with the Iterative algorithm, anaphors may be any annotation of the same type, e.g. any Mention for Mention.type == Foo
+        AnnotationSet candidateAS = inputAS.get(mentionAS.iterator().next().getType());
+        BaselineCoreference.MentionStorage mentionStorage = pr.getMentionStorage();
+        if (mentionStore != null && mentionStore.getStorage() != mentionStorage) {
+            mentionStore.close();
+            mentionStore = null;
+        }
+        if (mentionStore == null) {
+            mentionStore = new MentionStore(mentionStorage);
+        }
+        MentionStore store = mentionStore;
+        try {
+            store.clear(candidateAS.size());
+        } catch (IOException ioe) {
+            throw new ExecutionException(ioe);
+        }
+
+        // Only mentionAS can start a new chain
+        for (Annotation ann : candidateAS) {
+            int sentencePos = pr.getCoveringSentence(inputAS, sentences, ann.getStartNode().getOffset(), ann.getEndNode().getOffset());
+            store.add(ann, sentencePos, mentionAS.get(ann.getId()) != null);
+        }
+        candidateAS = null;     // the records are all that is needed from here on
+        store.sort();
+
+        Deque<OpenAntecedent> window = new ArrayDeque<OpenAntecedent>();
+        int numCandidates = store.size();
+        // the sortal words, content values and head words of the open antecedents
+        pr.createWindowIndexes();
+        boolean isTraced = pr.isDocumentTraced();
+        boolean isUnlimited = pr.getMaxCandidatesPerAntecedent() < 0;
+
+        for (int i = 0; i < numCandidates; i++) {
+            pr.progressChanged(100 * i / numCandidates);
+            if (pr.isInterrupted()) {
+                throw new ExecutionException("Execution of coreference was interrupted.");
+            }
+            if (pr.isBudgetExhausted()) {
+                break;
+            }
+
+            long annStart = store.getStart(i);
+            long annEnd = store.getEnd(i);
+            Annotation ann = null;
+            int anaphorSentencesBefore = -1;
+            MentionFeatures p2 = null;
+            boolean isDefiniteDescriptor = false;
+            boolean isExcluded = false;
+            OpenAntecedent claimant = null;
+
+            for (Iterator<OpenAntecedent> itr = window.iterator(); itr.hasNext();) {
+                OpenAntecedent antecedent = itr.next();
+                if (annStart >= antecedent.windowEnd) {
+                    itr.remove();
+                    pr.unindexOpenAntecedent(antecedent.mention);
+                    continue;
+                }
+                // don't look backwards
+                if (annStart <= antecedent.start || annEnd <= antecedent.end) {
+                    continue;
+                }
+                if (p2 == null) {
+                    // Don't process this anaphor if it occurs within a defined exclusion zone
+                    if (isExcluded || pr.isInExclusionRegion(inputAS, annStart, annEnd)) {
+                        if (!isTraced) {
+                            break;
+                        }
+                        // go on through the window only to record the pairs ruled out
+                        isExcluded = true;
+                        pr.traceRejection(antecedent.mention.ann.getId(), store.getId(i), RejectionReason.ExclusionRegion);
+                        continue;
+                    }
+                    ann = inputAS.get(store.getId(i));
+                    anaphorSentencesBefore = sentences.countStartingBefore(annEnd);
+                    isDefiniteDescriptor = pr.isDefiniteDescriptor(inputAS, annStart, annEnd);
+                    p2 = pr.getAnaphorFeatures(ann, docContent);
+                    pr.findHeadWordMatches(p2, isDefiniteDescriptor);
+                }
+                int sentenceDistance = antecedent.straddling + anaphorSentencesBefore - antecedent.sentencesBefore - 1;
+                RejectionReason distanceRejection = pr.getDistanceRejection(isDefiniteDescriptor, sentenceDistance);
+                if (distanceRejection != RejectionReason.None) {
+                    pr.traceRejection(antecedent.mention.ann.getId(), p2.ann.getId(), distanceRejection);
+                    continue;
+                }
+                if (!pr.isUnderCandidateLimit(antecedent.numCandidates++)) {
+                    pr.traceRejection(antecedent.mention.ann.getId(), p2.ann.getId(), RejectionReason.CandidateLimit);
+                    itr.remove();
+                    pr.unindexOpenAntecedent(antecedent.mention);
+                    continue;
+                }
+                // the Iterative algorithm would still count a claimed anaphor as a candidate of the later chains
+                if (claimant != null) {
+                    continue;
+                }
+                Double compareScore = pr.matchPair(antecedent.mention, p2, isDefiniteDescriptor, metrics, threshold);
+                if (compareScore != null) {
+                    pr.markCoreference(antecedent.mention, p2, compareScore);
+                    claimant = antecedent;
+                    if (isUnlimited) {
+                        break;
+                    }
+                }
+            }
+
+            if (claimant != null) {
+                // matching continues from the anaphor, which takes over the antecedent's place in the deque
+                pr.unindexOpenAntecedent(claimant.mention);
+                if (openAntecedent(claimant, ann, store.getSentence(i), inputAS, sentences, docContent)) {
+                    pr.indexOpenAntecedent(claimant.mention);
+                } else {
+                    window.remove(claimant);
+                }
+            } else if (store.isMember(i) && store.getSentence(i) >= 0) {
+                if (ann == null) {
+                    ann = inputAS.get(store.getId(i));
+                }
+                OpenAntecedent antecedent = new OpenAntecedent();
+                if (openAntecedent(antecedent, ann, store.getSentence(i), inputAS, sentences, docContent)) {
+                    window.addLast(antecedent);
+                    pr.indexOpenAntecedent(antecedent.mention);
+                }
+            }
+        }
+    }
+
+
+    void close() {
+        if (mentionStore != null) {
+            mentionStore.close();
+            mentionStore = null;
+        }
+    }
+}
@@ -0,0 +1,442 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.philgooch;
+
+import org.philgooch.BaselineCoreference.MeasureCompare;
+import org.philgooch.BaselineCoreference.SieveStage;
+
+import com.wcohen.ss.*;
+import com.wcohen.ss.api.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Evaluates many combinations of stringMatchThreshold, featureMatchThreshold and similarityComparison
+ * against a pair score file recorded by BaselineCoreference, without running GATE again.
+ * For each combination the chains are rebuilt with the same single pass as the SlidingWindow algorithm,
+ * and the number of links, chains and matches at each stage of the sieve are reported.
+ *
+ * Usage: ThresholdSweep pairScoreFile [-s stringMatchThresholds] [-f featureMatchThresholds]
+ *        [-c similarityComparisons] [-o chainsDirectory]
+ * where each list is comma separated, e.g. -s 0.8,0.85,0.9 -c max,mean
+ *
+ * The sweep assumes that cloneFeatures does not include any of the features compared by the sieve.
+ * maxCandidatesPerAntecedent is recorded with each document and applied; maxDocumentTime is not, as it
+ * depends on timing, so every recorded pair is evaluated.
+ *
+ * @author philipgooch
+ */
+public class ThresholdSweep {
+
+    private final double stringMatchThreshold;
+    private final double featureMatchThreshold;
+    private final MeasureCompare similarityComparison;
+
+    private int numDocuments;
+    private int numLinks;
+    private int numChains;
+    private final int[] stageCounts = new int[SieveStage.values().length];
+    private PrintWriter chainsOut;
+
+    // metrics and scores for chained antecedents whose string differs from the recorded one. run() shares one
+    // cache between all the sweeps of a file, and clears it after each document
+    private static final Map<String, StringDistance[]> metricsByName = new HashMap<String, StringDistance[]>();
+    private Map<String, double[]> scoreCache = new HashMap<String, double[]>();
+
+    private final double[] matchScore = new double[1];      // score of the last match of matchPair
+
+    /**
+     * Antecedent in the sliding window
+     */
+    private static class OpenAntecedent {
+        int mention;
+        int pair;           // next candidate pair of the antecedent
+        int pairEnd;
+        int numCandidates;  // number of candidate anaphors compared so far
+        String string;
+        String lastWord;
+        boolean isChainHead;
+    }
+
+
+    public ThresholdSweep(double stringMatchThreshold, double featureMatchThreshold, MeasureCompare similarityComparison) {
+        this.stringMatchThreshold = stringMatchThreshold;
+        this.featureMatchThreshold = featureMatchThreshold;
+        this.similarityComparison = similarityComparison;
+    }
+
+
+    /**
+     *
+     * @param chainsOut     if not null, each link is written here as document, antecedent id, anaphor id, stage and score
+     */
+    public void setChainsOutput(PrintWriter chainsOut) {
+        this.chainsOut = chainsOut;
+    }
+
+
+    /**
+     * Rebuild the chains of one recorded document
+     * @param block     recorded document
+     */
+    void evaluate(PairScoreFile.DocumentBlock block) {
+        numDocuments++;
+        int numMentions = block.numMentions();
+        boolean[] hasCorefId = new boolean[numMentions];
+        boolean[] hasBackRefId = new boolean[numMentions];
+        boolean[] isListMember = new boolean[numMentions];
+        String[] mentionStrings = new String[numMentions];
+        for (int k = 0; k < numMentions; k++) {
+            mentionStrings[k] = block.strings[block.mentionString[k]];
+        }
+
+        for (int i = 0; i < block.numLists(); i++) {
+            Arrays.fill(isListMember, false);
+            for (int j = block.listMemberStart[i]; j < block.listMemberStart[i + 1]; j++) {
+                isListMember[block.listMembers[j]] = true;
+            }
+
+            Deque<OpenAntecedent> window = new ArrayDeque<OpenAntecedent>();
+            for (int m = block.listPoolStart[i]; m < block.listPoolEnd[i]; m++) {
+                OpenAntecedent claimant = null;
+                for (Iterator<OpenAntecedent> itr = window.iterator(); itr.hasNext();) {
+                    OpenAntecedent antecedent = itr.next();
+                    while (antecedent.pair < antecedent.pairEnd && block.pairAnaphor[antecedent.pair] < m) {
+                        antecedent.pair++;
+                    }
+                    if (antecedent.pair == antecedent.pairEnd) {
+                        itr.remove();
+                        continue;
+                    }
+                    if (block.pairAnaphor[antecedent.pair] != m) {
+                        continue;
+                    }
+                    // as in SlidingWindowChainer, an anaphor counts as a candidate of every antecedent that reaches it
+                    if (block.maxCandidatesPerAntecedent > -1 && antecedent.numCandidates++ >= block.maxCandidatesPerAntecedent) {
+                        itr.remove();
+                        continue;
+                    }
+                    // a mention claimed by the chains of an earlier list is still a candidate, but can't be claimed again
+                    if (claimant != null || hasBackRefId[m] || (block.mentionFlags[m] & PairScoreFile.CLAIMABLE) == 0) {
+                        continue;
+                    }
+                    SieveStage stage = matchPair(block, antecedent, antecedent.pair, mentionStrings[m]);
+                    if (stage != SieveStage.None) {
+                        numLinks++;
+                        stageCounts[stage.ordinal()]++;
+                        if (antecedent.isChainHead) {
+                            numChains++;
+                        }
+                        if (chainsOut != null) {
+                            chainsOut.println(block.documentName + "\t" + block.mentionId[antecedent.mention] + "\t" +
+                                    block.mentionId[m] + "\t" + stage + "\t" + matchScore[0]);
+                        }
+                        hasCorefId[antecedent.mention] = true;
+                        hasBackRefId[m] = true;
+                        if (block.propagateContent && antecedent.string.length() > 0) {
+                            mentionStrings[m] = antecedent.string;
+                        }
+                        claimant = antecedent;
+                        if (block.maxCandidatesPerAntecedent < 0) {
+                            break;
+                        }
+                    }
+                }
+
+                if (claimant != null) {
+                    // matching continues from the anaphor
+                    if (!openAntecedent(block, claimant, m, mentionStrings[m], hasCorefId, false)) {
+                        window.remove(claimant);
+                    }
+                } else if (isListMember[m]) {
+                    OpenAntecedent antecedent = new OpenAntecedent();
+                    if (openAntecedent(block, antecedent, m, mentionStrings[m], hasCorefId, true)) {
+                        window.addLast(antecedent);
+                    }
+                }
+            }
+        }
+    }
+
+
+    private boolean openAntecedent(PairScoreFile.DocumentBlock block, OpenAntecedent antecedent, int m, String str,
+            boolean[] hasCorefId, boolean isChainHead) {
+        if ((block.mentionFlags[m] & PairScoreFile.CAN_OPEN) == 0 || hasCorefId[m] || block.pairStart[m] == block.pairStart[m + 1]) {
+            return false;
+        }
+        antecedent.mention = m;
+        antecedent.pair = block.pairStart[m];
+        antecedent.pairEnd = block.pairStart[m + 1];
+        antecedent.numCandidates = 0;
+        antecedent.string = str;
+        antecedent.lastWord = BaselineCoreference.getLastWord(str);
+        antecedent.isChainHead = isChainHead;
+        return true;
+    }
+
+
+    /**
+     * The sieve of BaselineCoreference, evaluated from the recorded pair
+     * @param block         recorded document
+     * @param antecedent    open antecedent
+     * @param pair          recorded pair
+     * @param p2String      anaphor string
+     * @return              the stage that matched, or None, with the score of a match in matchScore
+     */
+    private SieveStage matchPair(PairScoreFile.DocumentBlock block, OpenAntecedent antecedent, int pair, String p2String) {
+        double[] score = matchScore;
+        int m = block.pairAnaphor[pair];
+        byte flags = block.pairFlags[pair];
+        double featureMatchRatio = (block.numComparisonFeats == 0) ? 1.0 : ((double)block.pairFeatureMatches[pair]) / block.numComparisonFeats;
+        if ((flags & PairScoreFile.ESSENTIAL_MATCH) == 0 || featureMatchRatio < featureMatchThreshold) {
+            return SieveStage.None;
+        }
+
+        String p1String = antecedent.string;
+        String p1LastWord = antecedent.lastWord;
+        String p2LastWord = BaselineCoreference.getLastWord(p2String);
+        String currType = block.strings[block.mentionType[antecedent.mention]];
+        boolean isDefiniteDescriptor = (block.mentionFlags[m] & PairScoreFile.DEFINITE) != 0;
+        int shortestWord = block.shortestWord;
+
+        if (p1String.length() >= shortestWord && p2String.length() >= shortestWord && p1String.equalsIgnoreCase(p2String)) {
+            score[0] = 1.0;
+            return SieveStage.Exact;
+        }
+        if (isDefiniteDescriptor) {
+            if (p1LastWord.equalsIgnoreCase(p2LastWord)) {
+                score[0] = 0.8;
+                return SieveStage.DefiniteHeadword;
+            } else if (block.annTypeToSortal && currType.equalsIgnoreCase(p2LastWord)) {
+                score[0] = 0.75;
+                return SieveStage.TypeToSortal;
+            }
+            if ((flags & PairScoreFile.SORTAL_MATCH) != 0) {
+                score[0] = 0.75;
+                return SieveStage.FeatureToSortal;
+            } else if (!currType.equalsIgnoreCase("Person") && block.tentativeSortal) {
+                score[0] = 0.5;
+                return SieveStage.TentativeSortal;
+            }
+        }
+        if ((flags & PairScoreFile.CONTENT_MATCH) != 0 || matchContentValue(block, m, p1LastWord)) {
+            score[0] = 0.65;
+            return SieveStage.Content;
+        }
+        if (!isDefiniteDescriptor && BaselineCoreference.getNumWords(p1String) > 1 && p1LastWord.equalsIgnoreCase(p2LastWord) && currType.equalsIgnoreCase("Person")) {
+            score[0] = 0.70;
+            return SieveStage.PersonHeadword;
+        }
+        if (p1String.length() >= shortestWord && p2String.length() >= shortestWord) {
+            double metric1Score = block.pairScore1[pair];
+            double metric2Score = block.pairScore2[pair];
+            if (!p1String.equals(block.strings[block.mentionString[antecedent.mention]])) {
+                double[] scores = getScores(block, p1String, p2String);
+                metric1Score = scores[0];
+                metric2Score = scores[1];
+            }
+            double compareScore = metric1Score;
+            if (block.numMetrics == 2) {
+                if (similarityComparison == MeasureCompare.mean) {
+                    compareScore = (metric1Score + metric2Score) / 2;
+                } else if (similarityComparison == MeasureCompare.max) {
+                    compareScore = Math.max(metric1Score, metric2Score);
+                } else {
+                    compareScore = Math.min(metric1Score, metric2Score);
+                }
+            }
+            if (compareScore >= stringMatchThreshold) {
+                score[0] = compareScore;
+                return SieveStage.Approximate;
+            }
+        }
+        return SieveStage.None;
+    }
+
+
+    /**
+     * Match a word against the anaphor's annFeatsToContent values, as the Content stage does
+     */
+    private boolean matchContentValue(PairScoreFile.DocumentBlock block, int m, String word) {
+        for (int i = block.contentStart[m]; i < block.contentStart[m + 1]; i++) {
+            int value = block.contentValues[i];
+            String str = block.strings[value >> 1];
+            if ((value & 1) == 1 ? str.equals(word) : str.equalsIgnoreCase(word)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Score a pair of strings that was not recorded, i.e. a chained antecedent compared using its chain head string
+     */
+    private double[] getScores(PairScoreFile.DocumentBlock block, String p1String, String p2String) {
+        if (block.numMetrics == 0) {
+            return new double[] {Double.NaN, Double.NaN};
+        }
+        String key = block.metricName + "\u0000" + p1String + "\u0000" + p2String;
+        double[] scores = scoreCache.get(key);
+        if (scores == null) {
+            StringDistance[] metrics;
+            synchronized (metricsByName) {
+                metrics = metricsByName.get(block.metricName);
+                if (metrics == null) {
+                    metrics = DistanceLearnerFactory.buildArray(block.metricName);
+                    metricsByName.put(block.metricName, metrics);
+                }
+            }
+            StringWrapper sw1 = metrics[0].prepare(p1String);
+            StringWrapper sw2 = metrics[0].prepare(p2String);
+            scores = new double[] {metrics[0].score(sw1, sw2), (metrics.length == 2) ? metrics[1].score(sw1, sw2) : Double.NaN};
+            scoreCache.put(key, scores);
+        }
+        return scores;
+    }
+
+
+    public int getNumLinks() {
+        return numLinks;
+    }
+
+    public int getNumChains() {
+        return numChains;
+    }
+
+    public int getStageCount(SieveStage stage) {
+        return stageCounts[stage.ordinal()];
+    }
+
+
+    /**
+     *
+     * @return      tab separated summary counts for this combination
+     */
+    public String getSummary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(stringMatchThreshold).append('\t').append(featureMatchThreshold).append('\t').append(similarityComparison);
+        sb.append('\t').append(numDocuments).append('\t').append(numLinks).append('\t').append(numChains);
+        for (SieveStage stage : SieveStage.values()) {
+            if (stage != SieveStage.None) {
+                sb.append('\t').append(stageCounts[stage.ordinal()]);
+            }
+        }
+        return sb.toString();
+    }
+
+
+    /**
+     *
+     * @return      tab separated column names of getSummary()
+     */
+    public static String getSummaryHeader() {
+        StringBuilder sb = new StringBuilder("stringMatchThreshold\tfeatureMatchThreshold\tsimilarityComparison\tdocuments\tlinks\tchains");
+        for (SieveStage stage : SieveStage.values()) {
+            if (stage != SieveStage.None) {
+                sb.append('\t').append(stage);
+            }
+        }
+        return sb.toString();
+    }
+
+
+    /**
+     * Evaluate every combination against a pair score file, reading it once
+     * @param pairScoreFile     recorded pairs
+     * @param sweeps            one ThresholdSweep per combination
+     * @throws IOException
+     */
+    public static void run(File pairScoreFile, List<ThresholdSweep> sweeps) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(pairScoreFile)));
+        try {
+            // the sweeps mostly score the same unrecorded pairs, so they share one cache
+            Map<String, double[]> scoreCache = new HashMap<String, double[]>();
+            for (ThresholdSweep sweep : sweeps) {
+                sweep.scoreCache = scoreCache;
+            }
+            PairScoreFile.DocumentBlock block;
+            while ((block = PairScoreFile.readNext(in)) != null) {
+                for (ThresholdSweep sweep : sweeps) {
+                    sweep.evaluate(block);
+                }
+                scoreCache.clear();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+
+    private static List<String> splitArg(String arg) {
+        return Arrays.asList(arg.split("\\s*,\\s*"));
+    }
+
+
+    private static void exitWithUsage() {
+        System.err.println("Usage: ThresholdSweep pairScoreFile [-s stringMatchThresholds] [-f featureMatchThresholds] [-c similarityComparisons] [-o chainsDirectory]");
+        System.exit(1);
+    }
+
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            exitWithUsage();
+        }
+        File pairScoreFile = new File(args[0]);
+        List<String> stringThresholds = Arrays.asList("0.9");
+        List<String> featureThresholds = Arrays.asList("0.8");
+        List<String> comparisons = Arrays.asList("max");
+        File chainsDir = null;
+        for (int i = 1; i < args.length; i += 2) {
+            if (i + 1 == args.length) {
+                System.err.println("Missing value for " + args[i]);
+                exitWithUsage();
+            } else if (args[i].equals("-s")) {
+                stringThresholds = splitArg(args[i + 1]);
+            } else if (args[i].equals("-f")) {
+                featureThresholds = splitArg(args[i + 1]);
+            } else if (args[i].equals("-c")) {
+                comparisons = splitArg(args[i + 1]);
+            } else if (args[i].equals("-o")) {
+                chainsDir = new File(args[i + 1]);
+                chainsDir.mkdirs();
+            } else {
+                System.err.println("Unknown option " + args[i]);
+                exitWithUsage();
+            }
+        }
+
+        List<ThresholdSweep> sweeps = new ArrayList<ThresholdSweep>();
+        List<PrintWriter> writers = new ArrayList<PrintWriter>();
+        for (String s : stringThresholds) {
+            for (String f : featureThresholds) {
+                for (String c : comparisons) {
+                    ThresholdSweep sweep = new ThresholdSweep(Double.parseDouble(s), Double.parseDouble(f), MeasureCompare.valueOf(c));
+                    if (chainsDir != null) {
+                        PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(new File(chainsDir, "chains-" + s + "-" + f + "-" + c + ".tsv"))));
+                        sweep.setChainsOutput(writer);
+                        writers.add(writer);
+                    }
+                    sweeps.add(sweep);
+                }
+            }
+        }
+
+        try {
+            run(pairScoreFile, sweeps);
+        } finally {
+            for (PrintWriter writer : writers) {
+                writer.close();
+            }
+        }
+
+        System.out.println(getSummaryHeader());
+        for (ThresholdSweep sweep : sweeps) {
+            System.out.println(sweep.getSummary());
+        }
+    }
+}
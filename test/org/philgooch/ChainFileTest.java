@@ -0,0 +1,87 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.philgooch;
+
+import java.io.File;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Check that documents appended by ChainFile.Writer are read back unchanged, including links whose anaphor sorts
+ * before its antecedent
+ *
+ * @author philipgooch
+ */
+public class ChainFileTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        // mentions 1 and 2 start together, and 2 is the antecedent of 1 as well as the anaphor of 0
+        ChainFile.DocumentChains first = new ChainFile.DocumentChains("first.xml",
+                new int[] {12, 3, 40, 7, 8},
+                new String[] {"Person", "Person", "Person", "Location", "Person"},
+                new long[] {0, 10, 10, 30, 70000},
+                new long[] {4, 14, 20, 36, 70004},
+                new String[] {"John", "John", "John Smith", "Par\u00eds", "John"},
+                new int[] {1, 1, 1, 0, 1},
+                new int[] {-1, 2, 0, -1, 2},
+                new float[] {Float.NaN, 0.5f, 1.0f, Float.NaN, 0.75f},
+                1);
+        ChainFile.DocumentChains second = new ChainFile.DocumentChains(null,
+                new int[] {5},
+                new String[] {"Organization"},
+                new long[] {3},
+                new long[] {7},
+                new String[] {"Acme"},
+                new int[] {0},
+                new int[] {-1},
+                new float[] {Float.NaN},
+                0);
+
+        File file = File.createTempFile("chains", ".bin");
+        try {
+            ChainFile.Writer writer = new ChainFile.Writer(file);
+            try {
+                writer.append(first);
+                writer.append(second);
+            } finally {
+                writer.close();
+            }
+
+            ChainFile chainFile = new ChainFile(file);
+            try {
+                assertSameChains(first, chainFile.next());
+                ChainFile.DocumentChains read = chainFile.next();
+                assertEquals("", read.getDocumentName());
+                assertSameChains(second, read);
+                assertNull(chainFile.next());
+            } finally {
+                chainFile.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+
+    private static void assertSameChains(ChainFile.DocumentChains expected, ChainFile.DocumentChains actual) {
+        if (expected.getDocumentName() != null) {
+            assertEquals(expected.getDocumentName(), actual.getDocumentName());
+        }
+        assertEquals(expected.getNumMentions(), actual.getNumMentions());
+        assertEquals(expected.getNumChains(), actual.getNumChains());
+        for (int i = 0; i < expected.getNumMentions(); i++) {
+            assertEquals(expected.getId(i), actual.getId(i));
+            assertEquals(expected.getType(i), actual.getType(i));
+            assertEquals(expected.getStart(i), actual.getStart(i));
+            assertEquals(expected.getEnd(i), actual.getEnd(i));
+            assertEquals(expected.getText(i), actual.getText(i));
+            assertEquals(expected.getChain(i), actual.getChain(i));
+            assertEquals(expected.getAntecedent(i), actual.getAntecedent(i));
+            assertEquals(Float.floatToIntBits(expected.getScore(i)), Float.floatToIntBits(actual.getScore(i)));
+        }
+    }
+}
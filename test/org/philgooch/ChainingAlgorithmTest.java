@@ -0,0 +1,212 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.philgooch;
+
+import gate.*;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Check that the SlidingWindow chaining algorithm links exactly the same pairs as Iterative, with the same scores
+ * and features, over randomly generated documents
+ *
+ * @author philipgooch
+ */
+public class ChainingAlgorithmTest {
+
+    private static final String[] WORDS = {"John", "Smith", "Mary", "Jones", "London", "Paris", "city", "Acme", "Corp",
+        "hospital", "operation", "lesion", "Smithe", "Jon", "location", "organization", "person", "Londn", "runs", "and", "was", "in"};
+    private static final String[] DETERMINERS = {"the", "that", "this"};
+    private static final String[] MENTION_TYPES = {"Person", "Location", "Organization"};
+    private static final int NUM_DOCUMENTS = 100;
+
+
+    @BeforeClass
+    public static void initGate() throws Exception {
+        Gate.init();
+        // the plugin directory holds creole.xml and BaselineCoreference.jar
+        Gate.getCreoleRegister().registerDirectories(new File(".").getAbsoluteFile().toURI().toURL());
+    }
+
+
+    @Test
+    public void testDefaultParameters() throws Exception {
+        checkSameChains(Factory.newFeatureMap(), BaselineCoreference.MentionStorage.Heap);
+    }
+
+    @Test
+    public void testExclusionsAndFeatures() throws Exception {
+        FeatureMap params = Factory.newFeatureMap();
+        params.put("excludeIfWithin", new ArrayList<String>(Arrays.asList("Table")));
+        params.put("comparisonFeats", new ArrayList<String>(Arrays.asList("gender")));
+        params.put("annFeatsToContent", new ArrayList<String>(Arrays.asList("synonym", "hypernym")));
+        checkSameChains(params, BaselineCoreference.MentionStorage.Direct);
+    }
+
+    @Test
+    public void testCandidateLimit() throws Exception {
+        FeatureMap params = Factory.newFeatureMap();
+        params.put("maxCandidatesPerAntecedent", 2);
+        params.put("excludeIfWithin", new ArrayList<String>(Arrays.asList("Table")));
+        checkSameChains(params, BaselineCoreference.MentionStorage.MappedFile);
+    }
+
+    @Test
+    public void testNestedSentences() throws Exception {
+        FeatureMap params = Factory.newFeatureMap();
+        params.put("annFeatsToContent", new ArrayList<String>(Arrays.asList("synonym")));
+        checkSameChains(params, BaselineCoreference.MentionStorage.Heap, true);
+    }
+
+
+    /**
+     * Chain each document with both algorithms and compare the features of every mention
+     * @param params            parameters of both PRs
+     * @param mentionStorage    mentionStorage of the SlidingWindow PR
+     */
+    private static void checkSameChains(FeatureMap params, BaselineCoreference.MentionStorage mentionStorage) throws Exception {
+        checkSameChains(params, mentionStorage, false);
+    }
+
+    /**
+     * Chain each document with both algorithms and compare the features of every mention
+     * @param params            parameters of both PRs
+     * @param mentionStorage    mentionStorage of the SlidingWindow PR
+     * @param nestedSentences   also add Sentences that enclose others
+     */
+    private static void checkSameChains(FeatureMap params, BaselineCoreference.MentionStorage mentionStorage, boolean nestedSentences) throws Exception {
+        BaselineCoreference iterative = createPR(params, BaselineCoreference.ChainingAlgorithm.Iterative);
+        BaselineCoreference slidingWindow = createPR(params, BaselineCoreference.ChainingAlgorithm.SlidingWindow);
+        slidingWindow.setMentionStorage(mentionStorage);
+        int numLinks = 0;
+        try {
+            for (long seed = 0; seed < NUM_DOCUMENTS; seed++) {
+                Document iterativeDoc = createDocument(seed, nestedSentences);
+                Document slidingWindowDoc = createDocument(seed, nestedSentences);
+                try {
+                    iterative.setDocument(iterativeDoc);
+                    iterative.execute();
+                    slidingWindow.setDocument(slidingWindowDoc);
+                    slidingWindow.execute();
+                    String iterativeChains = getMentionFeatures(iterativeDoc);
+                    assertEquals("document " + seed, iterativeChains, getMentionFeatures(slidingWindowDoc));
+                    numLinks += iterativeChains.split("corefId=").length - 1;
+                } finally {
+                    Factory.deleteResource(iterativeDoc);
+                    Factory.deleteResource(slidingWindowDoc);
+                }
+            }
+        } finally {
+            Factory.deleteResource(iterative);
+            Factory.deleteResource(slidingWindow);
+        }
+        assertTrue("no links were made", numLinks > 0);
+    }
+
+    private static BaselineCoreference createPR(FeatureMap params, BaselineCoreference.ChainingAlgorithm chainingAlgorithm) throws Exception {
+        FeatureMap prParams = Factory.newFeatureMap();
+        prParams.putAll(params);
+        prParams.put("chainingAlgorithm", chainingAlgorithm);
+        return (BaselineCoreference)Factory.createResource(BaselineCoreference.class.getName(), prParams);
+    }
+
+
+    /**
+     * Generate a document of Tokens and Sentences with Person, Location and Organization mentions, some within
+     * Table annotations, and with type, gender, synonym and hypernym features
+     * @param seed              random seed
+     * @param nestedSentences   also add Sentences that enclose others
+     * @return                  the document
+     */
+    static Document createDocument(long seed, boolean nestedSentences) throws Exception {
+        Random random = new Random(seed);
+        int numTokens = 30 + random.nextInt(300);
+        StringBuilder content = new StringBuilder();
+        long[] starts = new long[numTokens];
+        long[] ends = new long[numTokens];
+        String[] strings = new String[numTokens];
+        for (int i = 0; i < numTokens; i++) {
+            strings[i] = (random.nextInt(6) == 0) ? DETERMINERS[random.nextInt(DETERMINERS.length)] : WORDS[random.nextInt(WORDS.length)];
+            starts[i] = content.length();
+            content.append(strings[i]);
+            ends[i] = content.length();
+            content.append((random.nextInt(8) == 0) ? ". " : " ");
+        }
+        Document doc = Factory.newDocument(content.toString());
+        AnnotationSet as = doc.getAnnotations();
+        for (int i = 0; i < numTokens; i++) {
+            FeatureMap fm = Factory.newFeatureMap();
+            fm.put("string", strings[i]);
+            fm.put("kind", "word");
+            as.add(starts[i], ends[i], "Token", fm);
+        }
+        for (int i = 0; i < numTokens;) {
+            int last = Math.min(numTokens - 1, i + 2 + random.nextInt(10));
+            // leave the odd stretch outside any sentence
+            if (random.nextInt(15) != 0) {
+                as.add(starts[i], ends[last], "Sentence", Factory.newFeatureMap());
+            }
+            if (nestedSentences && random.nextInt(4) == 0) {
+                int outerFirst = Math.max(0, i - random.nextInt(3));
+                int outerLast = Math.min(numTokens - 1, last + 2 + random.nextInt(8));
+                as.add(starts[outerFirst], ends[outerLast], "Sentence", Factory.newFeatureMap());
+            }
+            i = last + 1;
+        }
+        int numMentions = random.nextInt(numTokens / 2 + 1);
+        for (int k = 0; k < numMentions; k++) {
+            int first = random.nextInt(numTokens);
+            int last = Math.min(numTokens - 1, first + random.nextInt(3));
+            FeatureMap fm = Factory.newFeatureMap();
+            String type = MENTION_TYPES[random.nextInt(MENTION_TYPES.length)];
+            if (random.nextInt(3) == 0) {
+                fm.put("type", random.nextBoolean() ? "city" : "hospital");
+            }
+            if (random.nextInt(3) == 0) {
+                fm.put("gender", random.nextBoolean() ? "male" : "female");
+            }
+            if (random.nextInt(4) == 0) {
+                fm.put("synonym", Arrays.asList("operation", "lesion", WORDS[random.nextInt(WORDS.length)].toLowerCase()));
+            }
+            if (random.nextInt(4) == 0) {
+                fm.put("hypernym", WORDS[random.nextInt(WORDS.length)].toLowerCase());
+            }
+            as.add(starts[first], ends[last], type, fm);
+        }
+        int numTables = random.nextInt(3);
+        for (int k = 0; k < numTables; k++) {
+            int first = random.nextInt(numTokens);
+            int last = Math.min(numTokens - 1, first + random.nextInt(6));
+            as.add(starts[first], ends[last], "Table", Factory.newFeatureMap());
+        }
+        return doc;
+    }
+
+    /**
+     *
+     * @param doc       chained document
+     * @return          the features of every annotation other than Tokens and Sentences, in id order
+     */
+    private static String getMentionFeatures(Document doc) {
+        List<Annotation> anns = new ArrayList<Annotation>(doc.getAnnotations());
+        Collections.sort(anns, new Comparator<Annotation>() {
+            public int compare(Annotation ann1, Annotation ann2) {
+                return ann1.getId().compareTo(ann2.getId());
+            }
+        });
+        StringBuilder sb = new StringBuilder();
+        for (Annotation ann : anns) {
+            if (!ann.getType().equals("Token") && !ann.getType().equals("Sentence")) {
+                sb.append(ann.getId()).append(new TreeMap<Object, Object>(ann.getFeatures())).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.philgooch;
+
+import org.philgooch.BaselineCoreference.RejectionReason;
+import org.philgooch.BaselineCoreference.SieveStage;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Check that DecisionTrace writes every record it accepts in order, counts every record it drops, and marks
+ * each run of a PR that appends to the same file
+ *
+ * @author philipgooch
+ */
+public class DecisionTraceTest {
+
+    private File file;
+
+
+    @Before
+    public void createFile() throws Exception {
+        file = File.createTempFile("trace", ".bin");
+        file.delete();
+    }
+
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+
+    @Test
+    public void testRecords() throws Exception {
+        DecisionTrace trace = new DecisionTrace(file, 1024, 1.0, null);
+        assertTrue(trace.startDocument("doc1.xml"));
+        for (int i = 0; i < 100; i++) {
+            trace.recordPair(i, i + 1, SieveStage.Exact, RejectionReason.None, 1 << SieveStage.Exact.ordinal(), 1.0, 0.5);
+        }
+        trace.close();
+
+        List<String> records = readRecords(file);
+        assertEquals(102, records.size());
+        assertEquals("RUN", records.get(0));
+        assertEquals("DOCUMENT 1 doc1.xml", records.get(1));
+        for (int i = 0; i < 100; i++) {
+            assertEquals("PAIR 1 " + i + " " + (i + 1) + " Exact None 1.0 0.5", records.get(i + 2));
+        }
+    }
+
+    @Test
+    public void testDropped() throws Exception {
+        DecisionTrace trace = new DecisionTrace(file, 4, 1.0, null);
+        trace.startDocument("doc1.xml");
+        int numPairs = 10000;
+        for (int i = 0; i < numPairs; i++) {
+            trace.recordPair(i, i + 1, SieveStage.None, RejectionReason.BelowThreshold, 0, 0.5, 0.0);
+        }
+        trace.close();
+
+        // every record is either written or counted as dropped
+        long numWritten = 0;
+        long numDropped = 0;
+        for (String record : readRecords(file)) {
+            if (record.startsWith("DROPPED ")) {
+                numDropped += Long.parseLong(record.substring("DROPPED ".length()));
+            } else if (!record.equals("RUN")) {
+                numWritten++;
+            }
+        }
+        assertTrue("nothing was dropped", numDropped > 0);
+        assertEquals(numPairs + 1, numWritten + numDropped);
+    }
+
+    @Test
+    public void testRuns() throws Exception {
+        for (String name : new String[] {"doc1.xml", "doc2.xml"}) {
+            DecisionTrace trace = new DecisionTrace(file, 16, 1.0, null);
+            trace.startDocument(name);
+            trace.recordPair(1, 2, SieveStage.Approximate, RejectionReason.None, 0, 0.95, 1.0);
+            trace.close();
+        }
+        assertEquals(Arrays.asList("RUN", "DOCUMENT 1 doc1.xml", "PAIR 1 1 2 Approximate None 0.95 1.0",
+                "RUN", "DOCUMENT 1 doc2.xml", "PAIR 1 1 2 Approximate None 0.95 1.0"), readRecords(file));
+    }
+
+    @Test
+    public void testBufferSize() throws Exception {
+        for (int numSlots : new int[] {0, DecisionTrace.MAX_SLOTS + 1, Integer.MAX_VALUE}) {
+            try {
+                new DecisionTrace(file, numSlots, 1.0, null);
+                fail("buffer size " + numSlots + " was accepted");
+            } catch (IllegalArgumentException iae) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testEarlierVersion() throws Exception {
+        OutputStream out = new FileOutputStream(file);
+        out.write(DecisionTrace.MAGIC_V1.getBytes("US-ASCII"));
+        out.close();
+        try {
+            new DecisionTrace(file, 16, 1.0, null);
+            fail("a version 1 trace was appended to");
+        } catch (IOException ioe) {
+            // expected
+        }
+    }
+
+
+    /**
+     * Read a trace file as one line per record, leaving out the run start times
+     */
+    private static List<String> readRecords(File file) throws IOException {
+        List<String> records = new ArrayList<String>();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            byte[] magic = new byte[DecisionTrace.MAGIC.length()];
+            in.readFully(magic);
+            assertEquals(DecisionTrace.MAGIC, new String(magic, "US-ASCII"));
+            int type;
+            while ((type = in.read()) >= 0) {
+                if (type == DecisionTrace.RUN) {
+                    in.readLong();
+                    records.add("RUN");
+                } else if (type == DecisionTrace.DOCUMENT) {
+                    records.add("DOCUMENT " + in.readInt() + " " + in.readUTF());
+                } else if (type == DecisionTrace.PAIR) {
+                    int docSeq = in.readInt();
+                    int antecedentId = in.readInt();
+                    int anaphorId = in.readInt();
+                    SieveStage stage = SieveStage.values()[in.readByte()];
+                    RejectionReason reason = RejectionReason.values()[in.readByte()];
+                    in.readInt();
+                    records.add("PAIR " + docSeq + " " + antecedentId + " " + anaphorId + " " + stage + " " + reason + " " +
+                            in.readDouble() + " " + in.readFloat());
+                } else if (type == DecisionTrace.DROPPED) {
+                    records.add("DROPPED " + in.readLong());
+                } else {
+                    fail("record type " + type);
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return records;
+    }
+}
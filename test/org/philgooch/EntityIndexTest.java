@@ -0,0 +1,120 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.philgooch;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.*;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Check that EntityIndex links a head to the same entity after its block has been evicted to the log, after a
+ * full block has taken new heads, and after the index has been saved and loaded again
+ *
+ * @author philipgooch
+ */
+public class EntityIndexTest {
+
+    private static final int NUM_HEADS = 2000;
+
+    // only exact matches (ignoring case) link a head to an existing entity
+    private static final EntityIndex.HeadMatcher NO_MATCH = new EntityIndex.HeadMatcher() {
+        @Override
+        public double score(String head1, String head2) {
+            return 0.0;
+        }
+    };
+
+
+    @Test
+    public void testEviction() throws Exception {
+        // one head per shard in memory, so nearly every block is read back from the log
+        EntityIndex index = EntityIndex.acquire(null, EntityIndex.NUM_SHARDS);
+        try {
+            long[] entityIds = linkAll(index);
+            for (int i = 0; i < NUM_HEADS; i++) {
+                assertEquals("head " + i, entityIds[i], link(index, i));
+            }
+        } finally {
+            EntityIndex.release(index);
+        }
+    }
+
+    @Test
+    public void testFullBlock() throws Exception {
+        EntityIndex index = EntityIndex.acquire(null, -1);
+        try {
+            List<String> blockKeys = Collections.singletonList("common");
+            long[] entityIds = new long[EntityIndex.MAX_BLOCK_SIZE + 8];
+            for (int i = 0; i < entityIds.length; i++) {
+                entityIds[i] = index.link(blockKeys, "Head " + i, NO_MATCH, 0.9);
+            }
+            // the latest heads are kept, and the first ones make way for them
+            for (int i = entityIds.length - 1; i >= entityIds.length - EntityIndex.MAX_BLOCK_SIZE; i--) {
+                assertEquals("head " + i, entityIds[i], index.link(blockKeys, "HEAD " + i, NO_MATCH, 0.9));
+            }
+            assertTrue(index.link(blockKeys, "Head 0", NO_MATCH, 0.9) > entityIds[entityIds.length - 1]);
+        } finally {
+            EntityIndex.release(index);
+        }
+    }
+
+    @Test
+    public void testCheckpoint() throws Exception {
+        File dir = Files.createTempDirectory("entity-index-test").toFile();
+        try {
+            EntityIndex index = EntityIndex.acquire(dir, EntityIndex.NUM_SHARDS);
+            long[] entityIds;
+            try {
+                assertFalse(index.isLoaded());
+                entityIds = linkAll(index);
+            } finally {
+                EntityIndex.release(index);
+            }
+
+            index = EntityIndex.acquire(dir, EntityIndex.NUM_SHARDS);
+            try {
+                assertTrue(index.isLoaded());
+                for (int i = 0; i < NUM_HEADS; i++) {
+                    assertEquals("head " + i, entityIds[i], link(index, i));
+                }
+                // new entities are numbered on from the loaded ones
+                assertEquals(NUM_HEADS + 1, index.link(Collections.singletonList("new"), "New", NO_MATCH, 0.9));
+            } finally {
+                EntityIndex.release(index);
+            }
+        } finally {
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            dir.delete();
+        }
+    }
+
+
+    private static long[] linkAll(EntityIndex index) throws Exception {
+        long[] entityIds = new long[NUM_HEADS];
+        Set<Long> distinct = new HashSet<Long>();
+        for (int i = 0; i < NUM_HEADS; i++) {
+            entityIds[i] = link(index, i);
+            distinct.add(entityIds[i]);
+        }
+        assertEquals(NUM_HEADS, distinct.size());
+        return entityIds;
+    }
+
+    /**
+     * Link head i under its whole head and its first word
+     */
+    private static long link(EntityIndex index, int i) throws Exception {
+        String head = "Name" + i + " Smith";
+        return index.link(Arrays.asList(head.toLowerCase(), "name" + i), head, NO_MATCH, 0.9);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.philgooch;
+
+import gate.Document;
+
+import java.util.*;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Check that LinkPublisher delivers every event in order, even past a full queue and a failing listener, that
+ * publishDocumentComplete returns only once the document has been delivered, and that publishing never blocks
+ * once delivery has stopped
+ *
+ * @author philipgooch
+ */
+public class LinkPublisherTest {
+
+    private static final int NUM_LINKS = 500;
+
+
+    /**
+     * Records each event, sleeping now and then so that the publisher fills its queue
+     */
+    private static class RecordingListener implements CoreferenceListener {
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        public void linkFound(CoreferenceLink link) {
+            if (link.getAntecedentId() % 100 == 0) {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            events.add("link " + link.getAntecedentId());
+        }
+
+        @Override
+        public void chainsComplete(Document document, String inputASType) {
+            events.add("chains " + inputASType);
+        }
+
+        @Override
+        public void documentComplete(Document document) {
+            events.add("document");
+        }
+    }
+
+    /**
+     * Fails on every event
+     */
+    private static class FailingListener implements CoreferenceListener {
+        @Override
+        public void linkFound(CoreferenceLink link) {
+            throw new AssertionError("linkFound");
+        }
+
+        @Override
+        public void chainsComplete(Document document, String inputASType) {
+            throw new RuntimeException("chainsComplete");
+        }
+
+        @Override
+        public void documentComplete(Document document) {
+            throw new AssertionError("documentComplete");
+        }
+    }
+
+
+    @Test
+    public void testOrdering() throws Exception {
+        LinkPublisher publisher = new LinkPublisher();
+        RecordingListener listener = new RecordingListener();
+        publisher.addListener(new FailingListener());
+        publisher.addListener(listener);
+        publisher.start(4);
+        try {
+            List<String> expected = new ArrayList<String>();
+            for (String type : new String[] {"Person", "Location"}) {
+                for (int i = 0; i < NUM_LINKS; i++) {
+                    publisher.publishLink(createLink(type, i));
+                    expected.add("link " + i);
+                }
+                publisher.publishChainsComplete(null, type);
+                expected.add("chains " + type);
+            }
+            publisher.publishDocumentComplete(null);
+            expected.add("document");
+            // nothing is left to deliver once publishDocumentComplete has returned
+            assertEquals(expected, new ArrayList<String>(listener.events));
+        } finally {
+            publisher.close();
+        }
+    }
+
+    @Test
+    public void testClosed() throws Exception {
+        LinkPublisher publisher = new LinkPublisher();
+        RecordingListener listener = new RecordingListener();
+        publisher.addListener(listener);
+        publisher.start(1);
+        publisher.close();
+        long start = System.currentTimeMillis();
+        for (int i = 1; i < 10; i++) {
+            publisher.publishLink(createLink("Person", i));
+        }
+        publisher.publishDocumentComplete(null);
+        assertTrue("publishing blocked after close", System.currentTimeMillis() - start < 5000);
+        assertTrue(listener.events.isEmpty());
+    }
+
+
+    private static CoreferenceLink createLink(String type, int i) {
+        return new CoreferenceLink(null, type, i, 0, 4, "John", i + 1, 10, 14, "John", 1.0, BaselineCoreference.SieveStage.Exact);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.philgooch;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Check that LogHistogram puts each value in a bucket whose upper bound is within 1/16 of it, across the whole
+ * range of longs, and that its percentiles and counts hold when several threads record at once
+ *
+ * @author philipgooch
+ */
+public class LogHistogramTest {
+
+    // larger than any value tested, so that percentiles are not capped by the maximum
+    private static final long LARGEST = Long.MAX_VALUE;
+
+
+    @Test
+    public void testBuckets() throws Exception {
+        long previousBound = -1;
+        for (long value = 0; value < 100000; value++) {
+            long bound = getUpperBound(value);
+            assertBucket(value, bound);
+            if (bound != previousBound) {
+                // a new bucket starts just past the previous one
+                assertEquals("value " + value, previousBound + 1, value);
+                previousBound = bound;
+            }
+        }
+        for (int exponent = 4; exponent < 63; exponent++) {
+            long power = 1L << exponent;
+            assertBucket(power - 1, getUpperBound(power - 1));
+            assertEquals("value " + power, power + (power >>> 4) - 1, getUpperBound(power));
+            assertBucket(power + 1, getUpperBound(power + 1));
+        }
+        LogHistogram histogram = new LogHistogram();
+        histogram.record(LARGEST);
+        assertEquals(LARGEST, histogram.getPercentile(1.0));
+    }
+
+    @Test
+    public void testPercentiles() throws Exception {
+        LogHistogram histogram = new LogHistogram();
+        assertEquals(0, histogram.getP50());
+        assertEquals(0.0, histogram.getMean(), 0.0);
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        histogram.record(-5);
+        assertEquals(1001, histogram.getCount());
+        assertEquals(1000, histogram.getMax());
+        assertEquals(500500.0 / 1001, histogram.getMean(), 1e-9);
+        assertBucket(500, histogram.getP50());
+        assertBucket(990, histogram.getP99());
+        assertEquals(1000, histogram.getP999());
+        assertEquals(0, histogram.getPercentile(0.0));
+    }
+
+    @Test
+    public void testThreads() throws Exception {
+        final LogHistogram histogram = new LogHistogram();
+        final int numValues = 100000;
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < numValues; i++) {
+                        histogram.record(i * threads.length + offset);
+                    }
+                }
+            };
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long total = (long)numValues * threads.length;
+        assertEquals(total, histogram.getCount());
+        assertEquals(total - 1, histogram.getMax());
+        assertEquals((total - 1) / 2.0, histogram.getMean(), 1e-6);
+        assertBucket(total / 2 - 1, histogram.getP50());
+    }
+
+
+    /**
+     * Upper bound of the bucket holding value, read from the median of value and a larger one
+     */
+    private static long getUpperBound(long value) {
+        LogHistogram histogram = new LogHistogram();
+        histogram.record(value);
+        histogram.record(LARGEST);
+        return histogram.getPercentile(0.5);
+    }
+
+    private static void assertBucket(long value, long bound) {
+        assertTrue("value " + value + " above its bound " + bound, bound >= value);
+        assertTrue("value " + value + " too far below its bound " + bound, bound - value <= value / 16);
+    }
+}
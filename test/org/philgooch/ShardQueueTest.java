@@ -0,0 +1,116 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.philgooch;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Check that each shard of a ShardQueue is claimed by one worker only, and that the shards of a worker whose
+ * heartbeat stops changing, and only those, are reclaimed by another
+ *
+ * @author philipgooch
+ */
+public class ShardQueueTest {
+
+    private static final long STALE_MILLIS = 200;
+
+    private File root;
+
+
+    @Before
+    public void createRoot() throws Exception {
+        root = Files.createTempDirectory("shard-queue-test").toFile();
+    }
+
+    @After
+    public void deleteRoot() {
+        delete(root);
+    }
+
+
+    @Test
+    public void testClaim() throws Exception {
+        List<String> documents = new ArrayList<String>();
+        for (int i = 0; i < 10; i++) {
+            documents.add("file:/corpus/doc" + i + ".xml");
+        }
+        assertEquals(4, ShardQueue.create(root, documents, 3));
+        ShardQueue worker1 = new ShardQueue(root, "1234@host1", STALE_MILLIS);
+        ShardQueue worker2 = new ShardQueue(root, "5678@host2", STALE_MILLIS);
+
+        List<String> claimed = new ArrayList<String>();
+        ShardQueue.Shard shard;
+        while ((shard = worker1.claim()) != null) {
+            claimed.addAll(shard.documents);
+            assertTrue(worker1.complete(shard, shard.documents.size(), Collections.<String>emptyList()));
+            shard = worker2.claim();
+            if (shard != null) {
+                claimed.addAll(shard.documents);
+                assertTrue(worker2.complete(shard, shard.documents.size(), Collections.<String>emptyList()));
+            }
+        }
+        Collections.sort(claimed);
+        Collections.sort(documents);
+        assertEquals(documents, claimed);
+        assertFalse(worker1.hasClaimedShards());
+        assertNull(worker2.reclaim());
+    }
+
+    @Test
+    public void testReclaim() throws Exception {
+        ShardQueue.create(root, Arrays.asList("file:/corpus/doc0.xml", "file:/corpus/doc1.xml"), 1);
+        ShardQueue worker1 = new ShardQueue(root, "1234@host1", STALE_MILLIS);
+        ShardQueue worker2 = new ShardQueue(root, "5678@host2", STALE_MILLIS);
+        worker1.heartbeat("starting");
+        ShardQueue.Shard shard1 = worker1.claim();
+        ShardQueue.Shard shard2 = worker2.claim();
+        assertNotNull(shard2);
+        assertTrue(worker2.complete(shard2, 1, Collections.<String>emptyList()));
+
+        // a worker whose heartbeat keeps changing keeps its shard
+        assertNull(worker2.reclaim());
+        Thread.sleep(STALE_MILLIS + 50);
+        worker1.heartbeat("working");
+        assertNull(worker2.reclaim());
+
+        // one whose heartbeat stops loses it
+        Thread.sleep(STALE_MILLIS + 50);
+        ShardQueue.Shard reclaimed = worker2.reclaim();
+        assertNotNull(reclaimed);
+        assertEquals(shard1.name, reclaimed.name);
+        assertEquals(shard1.documents, reclaimed.documents);
+        assertFalse("the first worker's claim was taken over", worker1.complete(shard1, 1, Collections.<String>emptyList()));
+        assertTrue(worker2.complete(reclaimed, 1, Collections.<String>emptyList()));
+        assertFalse(worker2.hasClaimedShards());
+    }
+
+    @Test
+    public void testEmptyShards() throws Exception {
+        try {
+            ShardQueue.create(root, Arrays.asList("file:/corpus/doc0.xml"), 0);
+            fail("documentsPerShard of 0 was accepted");
+        } catch (IllegalArgumentException iae) {
+            // expected
+        }
+    }
+
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.philgooch;
+
+import com.wcohen.ss.*;
+import com.wcohen.ss.api.*;
+
+import java.util.*;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Fuzz check that SimilarityScorer gives exactly the scores of SecondString: both strings prepared with the first
+ * metric, scored with each metric in turn, and the two scores combined by the MeasureCompare
+ *
+ * @author philipgooch
+ */
+public class SimilarityScorerTest {
+
+    // includes characters whose upper and lower case differ in more than one way, and a space for the token-based metrics
+    private static final String ALPHABET = "abcAB \u00e9\u00c9*xyz\u0130K";
+    private static final int NUM_ANTECEDENTS = 1000;
+    private static final int NUM_CANDIDATES = 5;
+
+
+    @Test
+    public void testSingleMeasures() {
+        for (String metricName : new String[] {"Levenstein", "Jaro", "JaroWinkler"}) {
+            checkScores(metricName, BaselineCoreference.MeasureCompare.max, new Random(metricName.hashCode()));
+        }
+    }
+
+    @Test
+    public void testCombinedMeasures() {
+        for (String metricName : new String[] {"Levenstein/JaroWinkler", "Jaro/Levenstein", "JaroWinkler/MongeElkan",
+                "MongeElkan/Levenstein", "Level2Levenstein/Jaro"}) {
+            for (BaselineCoreference.MeasureCompare comparison : BaselineCoreference.MeasureCompare.values()) {
+                checkScores(metricName, comparison, new Random(metricName.hashCode() + comparison.ordinal()));
+            }
+        }
+    }
+
+    @Test
+    public void testLongStrings() {
+        // longer than 64 characters, so that the bit-parallel edit distance needs more than one word per row
+        Random random = new Random(64);
+        for (String metricName : new String[] {"Levenstein", "JaroWinkler/Levenstein"}) {
+            SimilarityScorer scorer = new SimilarityScorer(DistanceLearnerFactory.buildArray(metricName), BaselineCoreference.MeasureCompare.min);
+            StringDistance[] metrics = DistanceLearnerFactory.buildArray(metricName);
+            for (int i = 0; i < 200; i++) {
+                String str1 = randomString(random, 150);
+                String str2 = (i % 2 == 0) ? mutate(random, str1) : randomString(random, 150);
+                assertScore(metricName, str1, str2, getSecondStringScore(metrics, BaselineCoreference.MeasureCompare.min, str1, str2),
+                        scorer.score(str1, str2));
+            }
+        }
+    }
+
+
+    private static void checkScores(String metricName, BaselineCoreference.MeasureCompare comparison, Random random) {
+        StringDistance[] metrics = DistanceLearnerFactory.buildArray(metricName);
+        SimilarityScorer scorer = new SimilarityScorer(DistanceLearnerFactory.buildArray(metricName), comparison);
+        for (int i = 0; i < NUM_ANTECEDENTS; i++) {
+            String str1 = randomString(random, (i % 3 == 0) ? 80 : 12);
+            List<String> candidates = new ArrayList<String>();
+            for (int k = 0; k < NUM_CANDIDATES; k++) {
+                switch (random.nextInt(4)) {
+                    case 0:
+                        candidates.add(str1.toUpperCase());
+                        break;
+                    case 1:
+                        candidates.add(mutate(random, str1));
+                        break;
+                    default:
+                        candidates.add(randomString(random, (i % 5 == 0) ? 90 : 14));
+                }
+            }
+            double[] scores = scorer.score(str1, candidates);
+            for (int k = 0; k < NUM_CANDIDATES; k++) {
+                String str2 = candidates.get(k);
+                assertScore(metricName + " " + comparison, str1, str2, getSecondStringScore(metrics, comparison, str1, str2), scores[k]);
+            }
+        }
+    }
+
+    private static double getSecondStringScore(StringDistance[] metrics, BaselineCoreference.MeasureCompare comparison, String str1, String str2) {
+        StringWrapper wrapper1 = metrics[0].prepare(str1);
+        StringWrapper wrapper2 = metrics[0].prepare(str2);
+        double score = metrics[0].score(wrapper1, wrapper2);
+        if (metrics.length > 1) {
+            double score2 = metrics[1].score(wrapper1, wrapper2);
+            if (comparison == BaselineCoreference.MeasureCompare.mean) {
+                score = (score + score2) / 2;
+            } else if (comparison == BaselineCoreference.MeasureCompare.max) {
+                score = Math.max(score, score2);
+            } else {
+                score = Math.min(score, score2);
+            }
+        }
+        return score;
+    }
+
+    private static void assertScore(String metricName, String str1, String str2, double expected, double actual) {
+        // exactly equal, so that chains and recorded pair scores are unchanged
+        assertEquals(metricName + " [" + str1 + "] [" + str2 + "]", Double.doubleToLongBits(expected), Double.doubleToLongBits(actual));
+    }
+
+    private static String randomString(Random random, int maxLength) {
+        int length = random.nextInt(maxLength);
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return sb.toString();
+    }
+
+    private static String mutate(Random random, String str) {
+        StringBuilder sb = new StringBuilder(str);
+        int numEdits = 1 + random.nextInt(3);
+        for (int i = 0; i < numEdits; i++) {
+            char c = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+            int pos = (sb.length() == 0) ? 0 : random.nextInt(sb.length());
+            switch (random.nextInt(3)) {
+                case 0:
+                    sb.insert(pos, c);
+                    break;
+                case 1:
+                    if (sb.length() > 0) {
+                        sb.deleteCharAt(pos);
+                    }
+                    break;
+                default:
+                    if (sb.length() > 0) {
+                        sb.setCharAt(pos, c);
+                    }
+            }
+        }
+        return sb.toString();
+    }
+}
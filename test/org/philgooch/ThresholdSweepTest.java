@@ -0,0 +1,173 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.philgooch;
+
+import gate.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Check that ThresholdSweep, replaying a pair score file at the thresholds it was recorded with, makes exactly the
+ * links of the PR, and that PairScoreFile keeps strings of any length
+ *
+ * @author philipgooch
+ */
+public class ThresholdSweepTest {
+
+    private static final int NUM_DOCUMENTS = 60;
+
+
+    @BeforeClass
+    public static void initGate() throws Exception {
+        ChainingAlgorithmTest.initGate();
+    }
+
+
+    @Test
+    public void testDefaultParameters() throws Exception {
+        checkSameLinks(Factory.newFeatureMap());
+    }
+
+    @Test
+    public void testExistingLinksAndCandidateLimit() throws Exception {
+        FeatureMap params = Factory.newFeatureMap();
+        params.put("maxCandidatesPerAntecedent", 2);
+        params.put("excludeIfWithin", new ArrayList<String>(Arrays.asList("Table")));
+        params.put("comparisonFeats", new ArrayList<String>(Arrays.asList("gender")));
+        params.put("annFeatsToContent", new ArrayList<String>(Arrays.asList("synonym")));
+        checkSameLinks(params);
+    }
+
+    @Test
+    public void testLongStrings() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 70000) {
+            sb.append("Smith \u00e9 ");
+        }
+        PairScoreFile.DocumentBlock block = new PairScoreFile.DocumentBlock();
+        block.documentName = sb.toString();
+        block.metricName = "JaroWinkler/MongeElkan";
+        block.numMetrics = 2;
+        block.maxCandidatesPerAntecedent = -1;
+        block.strings = new String[] {"Person", sb.toString()};
+        block.mentionId = new int[] {1};
+        block.mentionType = new int[] {0};
+        block.mentionString = new int[] {1};
+        block.mentionFlags = new byte[] {PairScoreFile.CAN_OPEN};
+        block.contentStart = new int[] {0, 0};
+        block.contentValues = new int[0];
+        block.listPoolStart = new int[] {0};
+        block.listPoolEnd = new int[] {1};
+        block.listMemberStart = new int[] {0, 1};
+        block.listMembers = new int[] {0};
+        block.pairStart = new int[] {0, 0};
+        block.pairAnaphor = new int[0];
+        block.pairFeatureMatches = new int[0];
+        block.pairFlags = new byte[0];
+        block.pairScore1 = new double[0];
+        block.pairScore2 = new double[0];
+
+        File file = File.createTempFile("pairs", ".bin");
+        try {
+            PairScoreFile.append(file, block);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                PairScoreFile.DocumentBlock read = PairScoreFile.readNext(in);
+                assertEquals(block.documentName, read.documentName);
+                assertEquals(block.metricName, read.metricName);
+                assertEquals(block.strings[1], read.strings[1]);
+                assertNull(PairScoreFile.readNext(in));
+            } finally {
+                in.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+
+    /**
+     * Record and chain each document with the PR, then replay the recorded pairs and compare the links
+     * @param params    parameters of the PR
+     */
+    private static void checkSameLinks(FeatureMap params) throws Exception {
+        File file = File.createTempFile("pairs", ".bin");
+        FeatureMap prParams = Factory.newFeatureMap();
+        prParams.putAll(params);
+        prParams.put("pairScoreFileURL", file.toURI().toURL());
+        BaselineCoreference pr = (BaselineCoreference)Factory.createResource(BaselineCoreference.class.getName(), prParams);
+        StringBuilder expected = new StringBuilder();
+        try {
+            for (long seed = 0; seed < NUM_DOCUMENTS; seed++) {
+                Document doc = ChainingAlgorithmTest.createDocument(seed, false);
+                try {
+                    // some mentions, including excluded ones, are already linked
+                    Set<Integer> linked = new HashSet<Integer>();
+                    AnnotationSet as = doc.getAnnotations();
+                    for (Annotation ann : as.get(new HashSet<String>(Arrays.asList("Person", "Location", "Organization")))) {
+                        if (ann.getId() % 7 == 0 || !as.getCovering("Table", ann.getStartNode().getOffset(), ann.getEndNode().getOffset()).isEmpty()) {
+                            ann.getFeatures().put("backRefId", -1);
+                            linked.add(ann.getId());
+                        }
+                    }
+                    pr.setDocument(doc);
+                    pr.execute();
+                    List<Annotation> anns = new ArrayList<Annotation>(doc.getAnnotations());
+                    Collections.sort(anns, new Comparator<Annotation>() {
+                        @Override
+                        public int compare(Annotation a1, Annotation a2) {
+                            return a1.getId().compareTo(a2.getId());
+                        }
+                    });
+                    for (Annotation ann : anns) {
+                        Object backRefId = ann.getFeatures().get("backRefId");
+                        if (backRefId != null && !linked.contains(ann.getId())) {
+                            expected.append(backRefId).append('\t').append(ann.getId()).append('\n');
+                        }
+                    }
+                } finally {
+                    Factory.deleteResource(doc);
+                }
+            }
+
+            ThresholdSweep sweep = new ThresholdSweep(pr.getStringMatchThreshold(), pr.getFeatureMatchThreshold(), pr.getSimilarityComparison());
+            StringWriter links = new StringWriter();
+            PrintWriter linksOut = new PrintWriter(links);
+            sweep.setChainsOutput(linksOut);
+            ThresholdSweep.run(file, Collections.singletonList(sweep));
+            linksOut.close();
+            assertTrue("no links were made", expected.length() > 0);
+            assertEquals(sortLines(expected.toString()), sortLines(getLinkIds(links.toString())));
+        } finally {
+            Factory.deleteResource(pr);
+            file.delete();
+        }
+    }
+
+    /**
+     * Antecedent and anaphor ids of each link written by ThresholdSweep
+     */
+    private static String getLinkIds(String links) {
+        StringBuilder sb = new StringBuilder();
+        for (String line : links.split("\n")) {
+            if (line.length() > 0) {
+                String[] columns = line.split("\t");
+                sb.append(columns[1]).append('\t').append(columns[2]).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String sortLines(String lines) {
+        List<String> sorted = new ArrayList<String>(Arrays.asList(lines.split("\n")));
+        Collections.sort(sorted);
+        return sorted.toString();
+    }
+}